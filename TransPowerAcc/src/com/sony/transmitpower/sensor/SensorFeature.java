@@ -14,6 +14,8 @@ import com.sony.transmitpower.sensor.observer.AccelerometerObserver;
 import com.sony.transmitpower.util.OemPowerConsts;
 //import com.sony.transmitpower.util.Util;
 
+import java.io.PrintWriter;
+
 /**
  * SensorFeature implements the feature plugin. Initializes an accelerometer
  * and adds it to the pool of observers. (Cleans up after itself.)
@@ -24,7 +26,8 @@ public final class SensorFeature implements IFeature {
     private final Accelerometer mAccelerometer = new Accelerometer();
 
     /**
-     * Does nothing but instantiate object.
+     * Does nothing but instantiate object. Called by ObserverMediator
+     * which then initializes and keeps the feature.
      */
     public SensorFeature() {
         // Intentionally empty.
@@ -56,9 +59,6 @@ public final class SensorFeature implements IFeature {
             .addTelephonyStateListener((AccelerometerObserver) accObserver);
         ObserverMediator.getInstance()
             .addTelecommListener((AccelerometerObserver) accObserver);
-
-        // finally persist feature with ObserverMediator
-        ObserverMediator.getInstance().addFeature(this);
     }
 
     @Override
@@ -68,4 +68,9 @@ public final class SensorFeature implements IFeature {
         // a notification of that so just clean the sensors
         mAccelerometer.clean();
     }
+
+    @Override
+    public void dump(@NonNull PrintWriter pw) {
+        mAccelerometer.dump(pw);
+    }
 }
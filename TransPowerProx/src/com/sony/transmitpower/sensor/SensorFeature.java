@@ -14,6 +14,8 @@ import com.sony.transmitpower.sensor.observer.ProximityObserver;
 import com.sony.transmitpower.util.OemPowerConsts;
 //import com.sony.transmitpower.util.Util;
 
+import java.io.PrintWriter;
+
 /**
  * SensorFeature implements the feature plugin. Initializes a
  * proximity sensor and adds it to the pool of observers. (Cleans up
@@ -25,7 +27,8 @@ public final class SensorFeature implements IFeature {
     private final Proximity mProximity = new Proximity();
 
     /**
-     * Does nothing but instantiate object.
+     * Does nothing but instantiate object. Called by ObserverMediator
+     * which then initializes and keeps the feature.
      */
     public SensorFeature() {
         // Intentionally empty.
@@ -57,9 +60,6 @@ public final class SensorFeature implements IFeature {
             .addTelephonyStateListener((ProximityObserver) proximityObserver);
         ObserverMediator.getInstance()
             .addTelecommListener((ProximityObserver) proximityObserver);
-
-        // finally persist feature with ObserverMediator
-        ObserverMediator.getInstance().addFeature(this);
     }
 
     @Override
@@ -69,4 +69,9 @@ public final class SensorFeature implements IFeature {
         // a notification of that so just clean the sensors
         mProximity.clean();
     }
+
+    @Override
+    public void dump(@NonNull PrintWriter pw) {
+        mProximity.dump(pw);
+    }
 }
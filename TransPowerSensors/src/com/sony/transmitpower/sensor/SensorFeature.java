@@ -15,6 +15,8 @@ import com.sony.transmitpower.sensor.observer.ProximityObserver;
 import com.sony.transmitpower.util.OemPowerConsts;
 //import com.sony.transmitpower.util.Util;
 
+import java.io.PrintWriter;
+
 /**
  * SensorFeature implements the feature plugin. Initializes an
  * accelerometer and a proximity sensor and adds them to the pool of
@@ -27,7 +29,8 @@ public final class SensorFeature implements IFeature {
     private final Proximity mProximity = new Proximity();
 
     /**
-     * Does nothing but instantiate object.
+     * Does nothing but instantiate object. Called by ObserverMediator
+     * which then initializes and keeps the feature.
      */
     public SensorFeature() {
         // Intentionally empty.
@@ -79,9 +82,6 @@ public final class SensorFeature implements IFeature {
             .addTelephonyStateListener((ProximityObserver) proximityObserver);
         ObserverMediator.getInstance()
             .addTelecommListener((ProximityObserver) proximityObserver);
-
-        // finally persist feature with ObserverMediator
-        ObserverMediator.getInstance().addFeature(this);
     }
 
     @Override
@@ -92,4 +92,10 @@ public final class SensorFeature implements IFeature {
         mAccelerometer.clean();
         mProximity.clean();
     }
+
+    @Override
+    public void dump(@NonNull PrintWriter pw) {
+        mAccelerometer.dump(pw);
+        mProximity.dump(pw);
+    }
 }
@@ -8,8 +8,18 @@ import androidx.annotation.NonNull;
 import android.content.Context;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.sony.transmitpower.util.StartupTiming;
+import com.sony.transmitpower.util.Util;
+
+import java.io.PrintWriter;
 
 /**
  * SensorBase is a base class for sensors. It holds the sensor itself,
@@ -17,13 +27,41 @@ import android.hardware.SensorManager;
  * is a listener listening to it. It implements a common initialization
  * and cleanup routines. Necessary event handlers should be implemented
  * by derived classes.
+ * The sensor is looked up when it is first listened to rather than on
+ * init, so sensors which are never needed cost nothing at startup.
+ *
+ * Subclasses may set the sampling period and a max report latency
+ * letting the sensor hub batch events in its FIFO, and have events
+ * delivered on a thread of their own. Events are counted per delivery
+ * (callback) and per batch, i.e. a run of callbacks delivered back to
+ * back, which approximates wakeups of the application processor.
+ * Subclasses handle events in {@see onSensorEvent}, or replace how
+ * the sensor is registered in {@see register} and {@see unregister}.
  */
-public class SensorBase implements SensorEventListener {
-    //private static final String TAG = SensorBase.class.getCanonicalName();
+public class SensorBase implements SensorEventListener2 {
+    private static final String TAG = SensorBase.class.getCanonicalName();
 
-    private final int mSensorType;
+    // callbacks less than this apart belong to the same batch
+    private static final long BATCH_GAP_NANOS = 1000000L;
+
+    private int mSensorType;
     private SensorManager mSensorManager;
     private boolean mIsObserved = false;
+    private boolean mIsMissingLogged = false;
+    private int mSamplingPeriodUs = SensorManager.SENSOR_DELAY_UI;
+    private int mMaxReportLatencyUs = 0;
+    private boolean mUseOwnThread = false;
+    // re-register once the FIFO is flushed
+    private boolean mIsFlushPending = false;
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    // statistics, updated on the delivering thread
+    private volatile long mCallbacks = 0;
+    private volatile long mBatches = 0;
+    private long mLastCallbackTime = 0;
+    private volatile long mListenStartTime = 0;
+    private volatile long mListenedMs = 0;
 
     protected Sensor mSensor;
 
@@ -31,6 +69,88 @@ public class SensorBase implements SensorEventListener {
         mSensorType = sensorType;
     }
 
+    public int getSensorType() {
+        return mSensorType;
+    }
+
+    /**
+     * Changes the type of sensor to listen to, e.g. depending on
+     * configuration read in init. Only before it is first listened to.
+     */
+    protected void setSensorType(int sensorType) throws IllegalStateException {
+        if (mSensor != null) {
+            throw new IllegalStateException("Sensor already in use.");
+        }
+
+        mSensorType = sensorType;
+    }
+
+    /**
+     * Sets how events are delivered, before the sensor is listened to.
+     *
+     * @param samplingPeriodUs   Sampling period in us or one of
+     *                           SensorManager.SENSOR_DELAY_*.
+     * @param maxReportLatencyUs Time in us events may be batched, 0 to
+     *                           deliver them as they come.
+     * @param useOwnThread       Deliver events on a thread of the sensor
+     *                           instead of the main thread.
+     */
+    protected void setDelivery(int samplingPeriodUs,
+                               int maxReportLatencyUs,
+                               boolean useOwnThread) {
+        mSamplingPeriodUs = samplingPeriodUs;
+        mMaxReportLatencyUs = maxReportLatencyUs;
+        mUseOwnThread = useOwnThread;
+    }
+
+    /**
+     * Changes the sampling period, re-registering if listening, e.g. to
+     * sample slower while there is little to see. Re-registering is two
+     * binder calls to the sensor service and reconfigures the sensor, so
+     * change it on transitions rather than per event. Unregistering drops
+     * what the sensor hub holds, so with a max report latency the FIFO is
+     * flushed first and the sensor re-registered once it is delivered.
+     *
+     * @param samplingPeriodUs Sampling period in us or one of
+     *                         SensorManager.SENSOR_DELAY_*.
+     */
+    protected synchronized void setSamplingPeriod(int samplingPeriodUs) {
+        if (samplingPeriodUs == mSamplingPeriodUs) {
+            return;
+        }
+
+        mSamplingPeriodUs = samplingPeriodUs;
+        if (!mIsObserved || mIsFlushPending) {
+            return;
+        }
+
+        if (mMaxReportLatencyUs > 0 && mSensorManager.flush(this)) {
+            mIsFlushPending = true;
+            return;
+        }
+        reregister();
+    }
+
+    @Override
+    public synchronized void onFlushCompleted(Sensor sensor) {
+        // cleared by unregistering meanwhile
+        if (!mIsFlushPending) {
+            return;
+        }
+
+        mIsFlushPending = false;
+        reregister();
+    }
+
+    private void reregister() {
+        unregister(mSensorManager, mSensor);
+        mIsObserved = register(mSensorManager, mSensor, mHandler);
+        if (!mIsObserved) {
+            Util.logw(TAG, "Can't re-register sensor of type " + mSensorType);
+            mListenedMs += SystemClock.elapsedRealtime() - mListenStartTime;
+        }
+    }
+
     public void init(@NonNull final Context context)
             throws IllegalArgumentException,
                    IllegalStateException {
@@ -42,31 +162,126 @@ public class SensorBase implements SensorEventListener {
         if (mSensorManager == null) {
             throw new IllegalStateException("SensorManager is null.");
         }
+    }
+
+    public void clean() {
+        listen(false);
+        if (mThread != null) {
+            mThread.quitSafely();
+            mThread = null;
+            mHandler = null;
+        }
+    }
 
-        mSensor = mSensorManager.getDefaultSensor(mSensorType);
+    /**
+     * Whether the device has a sensor of the type. Looks the sensor up.
+     */
+    public boolean isAvailable() {
         if (mSensor == null) {
-            throw new IllegalStateException("Sensor is null.");
+            mSensor = mSensorManager.getDefaultSensor(mSensorType);
         }
+        return mSensor != null;
     }
 
-    public void clean() {
-        mSensorManager.unregisterListener(this);
-        mIsObserved = false;
+    /**
+     * Whether events of the sensor are being delivered.
+     */
+    public boolean isListening() {
+        return mIsObserved;
+    }
+
+    /**
+     * @return Sampling period in us, or one of SensorManager.SENSOR_DELAY_*.
+     */
+    public int getSamplingPeriodUs() {
+        return mSamplingPeriodUs;
+    }
+
+    public int getMaxReportLatencyUs() {
+        return mMaxReportLatencyUs;
+    }
+
+    /**
+     * @return Looper events are delivered on once listened to, e.g. to
+     *         handle something after a batch on the delivering thread.
+     */
+    protected Looper getDeliveryLooper() {
+        return mHandler != null ? mHandler.getLooper() : Looper.getMainLooper();
     }
 
-    public void listen(boolean turnOn) {
+    /**
+     * Registers or unregisters for events of the sensor. Synchronized like
+     * {@see setSamplingPeriod} and {@see onFlushCompleted}, which re-register
+     * from the delivering thread meanwhile.
+     */
+    public synchronized void listen(boolean turnOn) {
         if (turnOn && !mIsObserved) {
-            mIsObserved = mSensorManager.registerListener(this,
-                                                          mSensor,
-                                                          SensorManager.SENSOR_DELAY_UI);
+            if (!isAvailable()) {
+                // it won't appear, no need to tell on every listen
+                if (!mIsMissingLogged) {
+                    Util.logw(TAG, "No sensor of type " + mSensorType);
+                    mIsMissingLogged = true;
+                }
+                return;
+            }
+
+            if (mUseOwnThread && mThread == null) {
+                mThread = new HandlerThread(TAG + "." + mSensorType,
+                                            Process.THREAD_PRIORITY_FOREGROUND);
+                mThread.start();
+                mHandler = new Handler(mThread.getLooper());
+            }
+
+            mIsObserved = register(mSensorManager, mSensor, mHandler);
+            if (mIsObserved) {
+                mListenStartTime = SystemClock.elapsedRealtime();
+                StartupTiming.onSensorRegistered();
+            }
         } else if (!turnOn && mIsObserved) {
-            mSensorManager.unregisterListener(this);
+            unregister(mSensorManager, mSensor);
             mIsObserved = false;
+            mIsFlushPending = false;
+            mListenedMs += SystemClock.elapsedRealtime() - mListenStartTime;
         }
     }
 
+    /**
+     * Registers for events of sensor, to be delivered on handler.
+     *
+     * @return True if registered.
+     */
+    protected boolean register(@NonNull final SensorManager sensorManager,
+                               @NonNull final Sensor sensor,
+                               final Handler handler) {
+        return sensorManager.registerListener(this,
+                                              sensor,
+                                              mSamplingPeriodUs,
+                                              mMaxReportLatencyUs,
+                                              handler);
+    }
+
+    protected void unregister(@NonNull final SensorManager sensorManager,
+                              @NonNull final Sensor sensor) {
+        sensorManager.unregisterListener(this);
+    }
+
     @Override
-    public void onSensorChanged(SensorEvent event) {
+    public final void onSensorChanged(SensorEvent event) {
+        final long now = SystemClock.elapsedRealtimeNanos();
+        mCallbacks++;
+        if (now - mLastCallbackTime > BATCH_GAP_NANOS) {
+            mBatches++;
+        }
+        mLastCallbackTime = now;
+
+        onSensorEvent(event);
+    }
+
+    /**
+     * Handles an event, called on the delivering thread. Events of a
+     * batch come in a row.
+     */
+    protected void onSensorEvent(SensorEvent event) {
         // Intentionally empty;
     }
 
@@ -74,4 +289,19 @@ public class SensorBase implements SensorEventListener {
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
         // Intentionally empty;
     }
+
+    public void dump(@NonNull final PrintWriter pw) {
+        final long listenedMs = mListenedMs + (mIsObserved
+                ? SystemClock.elapsedRealtime() - mListenStartTime : 0);
+        final long minutes = Math.max(1, listenedMs / 60000);
+        pw.println("  " + getClass().getSimpleName()
+                   + ": type=" + mSensorType
+                   + " period=" + mSamplingPeriodUs
+                   + " latency=" + mMaxReportLatencyUs + "us"
+                   + " thread=" + (mUseOwnThread ? "own" : "main")
+                   + " listening=" + mIsObserved
+                   + " listened=" + listenedMs / 1000 + "s"
+                   + " callbacks=" + mCallbacks + " (" + mCallbacks / minutes + "/min)"
+                   + " batches=" + mBatches + " (" + mBatches / minutes + "/min)");
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.sensor;
+
+import androidx.annotation.NonNull;
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+
+import com.sony.transmitpower.util.Util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Table driven interpretation of device states for sensors, i.e. the
+ * configurable counterpart of {@see SensorState.getSensorState}. The
+ * rules are loaded from the sensor_policy XML resource and compiled
+ * into a table indexed by a state word, a bitmask of the inputs below,
+ * so a lookup is an array load returning an interned SensorState.
+ *
+ * States no rule matches, as well as all states if the resource is
+ * missing or malformed, get the built-in interpretation
+ * ({@see SensorState.getSensorState}).
+ */
+public final class SensorPolicy {
+    private static final String TAG = SensorPolicy.class.getCanonicalName();
+
+    // inputs, bits of a state word
+    public static final int CALL_ACTIVE = 1 << 0;
+    public static final int DATA_ACTIVE = 1 << 1;
+    public static final int SCREEN_ON   = 1 << 2;
+    public static final int EARPIECE    = 1 << 3;
+
+    // XML attribute names of the inputs, indexed by bit position
+    private static final String[] INPUTS = {"call", "data", "screen", "earpiece"};
+    private static final int WORD_COUNT = 1 << INPUTS.length;
+
+    private static final String RESOURCE_NAME = "sensor_policy";
+    private static final String TAG_RULE = "rule";
+    private static final String ATTR_POWER = "power";
+    private static final String ATTR_STATE = "state";
+
+    private static SensorPolicy sInstance;
+
+    private final SensorState[] mTable = new SensorState[WORD_COUNT];
+
+    /**
+     * @return The policy compiled from the app's resources, compiled on
+     *         first use.
+     */
+    public static synchronized SensorPolicy getInstance(@NonNull final Context context)
+            throws IllegalArgumentException {
+        if (context == null) {
+            throw new IllegalArgumentException("null context supplied");
+        }
+
+        if (sInstance == null) {
+            sInstance = new SensorPolicy(context);
+        }
+        return sInstance;
+    }
+
+    public static int pack(boolean isCallActive,
+                           boolean isDataActive,
+                           boolean isScreenOn,
+                           boolean isEarpiece) {
+        return (isCallActive ? CALL_ACTIVE : 0)
+                | (isDataActive ? DATA_ACTIVE : 0)
+                | (isScreenOn ? SCREEN_ON : 0)
+                | (isEarpiece ? EARPIECE : 0);
+    }
+
+    /**
+     * @param word Bitmask of inputs, see {@see pack}.
+     * @return Interned interpretation of the state.
+     */
+    public SensorState getSensorState(final int word) {
+        return mTable[word & (WORD_COUNT - 1)];
+    }
+
+    private SensorPolicy(final Context context) {
+        final List<int[]> rules = new ArrayList<>();
+        final List<SensorState> results = new ArrayList<>();
+        if (!load(context, rules, results)) {
+            rules.clear();
+            results.clear();
+        }
+
+        for (int word = 0; word < WORD_COUNT; word++) {
+            SensorState result = null;
+            for (int i = 0; i < rules.size() && result == null; i++) {
+                // rule is {mask, match}
+                if ((word & rules.get(i)[0]) == rules.get(i)[1]) {
+                    result = results.get(i);
+                }
+            }
+
+            if (result == null) {
+                result = SensorState.getSensorState((word & CALL_ACTIVE) != 0,
+                                                    (word & DATA_ACTIVE) != 0,
+                                                    (word & SCREEN_ON) != 0);
+            }
+            mTable[word] = result;
+        }
+    }
+
+    private static boolean load(final Context context,
+                                final List<int[]> rules,
+                                final List<SensorState> results) {
+        final int id = context.getResources()
+                .getIdentifier(RESOURCE_NAME, "xml", context.getPackageName());
+        if (id == 0) {
+            Util.logw(TAG, "No sensor policy resource, using built-in policy");
+            return false;
+        }
+
+        try (XmlResourceParser parser = context.getResources().getXml(id)) {
+            for (int event = parser.getEventType();
+                    event != XmlPullParser.END_DOCUMENT;
+                    event = parser.next()) {
+                if (event != XmlPullParser.START_TAG || !TAG_RULE.equals(parser.getName())) {
+                    continue;
+                }
+
+                int mask = 0;
+                int match = 0;
+                for (int i = 0; i < INPUTS.length; i++) {
+                    final String value = parser.getAttributeValue(null, INPUTS[i]);
+                    if (value != null) {
+                        mask |= 1 << i;
+                        match |= parseBoolean(value) ? 1 << i : 0;
+                    }
+                }
+
+                rules.add(new int[] {mask, match});
+                results.add(SensorState.of(parsePower(parser.getAttributeValue(null, ATTR_POWER)),
+                                           parseState(parser.getAttributeValue(null, ATTR_STATE))));
+            }
+            return true;
+        } catch (XmlPullParserException | IOException | IllegalArgumentException e) {
+            Util.loge(TAG, "Malformed sensor policy, using built-in policy: " + e);
+            return false;
+        }
+    }
+
+    private static boolean parseBoolean(final String value) throws IllegalArgumentException {
+        if ("true".equals(value)) {
+            return true;
+        }
+        if ("false".equals(value)) {
+            return false;
+        }
+        throw new IllegalArgumentException("Invalid input value: " + value);
+    }
+
+    private static boolean parsePower(final String value) throws IllegalArgumentException {
+        if ("on".equals(value)) {
+            return SensorState.POWER_ON;
+        }
+        if ("off".equals(value)) {
+            return SensorState.POWER_OFF;
+        }
+        throw new IllegalArgumentException("Invalid power: " + value);
+    }
+
+    private static int parseState(final String value) throws IllegalArgumentException {
+        if ("not_detected".equals(value)) {
+            return SensorState.NOT_DETECTED;
+        }
+        if ("detecting".equals(value)) {
+            return SensorState.DETECTING;
+        }
+        if ("detected".equals(value)) {
+            return SensorState.DETECTED;
+        }
+        throw new IllegalArgumentException("Invalid state: " + value);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.sensor;
+
+import androidx.annotation.NonNull;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.Handler;
+
+import com.sony.transmitpower.util.ListenerRegistry;
+import com.sony.transmitpower.util.Util;
+
+import java.io.PrintWriter;
+
+/**
+ * SensorBase for one-shot trigger sensors, e.g.
+ * Sensor.TYPE_SIGNIFICANT_MOTION, TYPE_MOTION_DETECT or
+ * TYPE_STATIONARY_DETECT, which are detected by the sensor hub without
+ * waking the application processor until they fire. Listening arms the
+ * trigger; it fires once, after which the sensor no longer listens and
+ * has to be armed again.
+ */
+public final class TriggerSensor extends SensorBase {
+    private static final String TAG = TriggerSensor.class.getCanonicalName();
+
+    private final ListenerRegistry<Listener> mListeners =
+            new ListenerRegistry<>(new Listener[0]);
+    private volatile long mTriggers = 0;
+
+    private final TriggerEventListener mTriggerListener = new TriggerEventListener() {
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            if (Util.DEBUG) {
+                Util.logd(TAG, "onTrigger type: " + getSensorType());
+            }
+
+            mTriggers++;
+            // the request is cancelled by firing
+            listen(false);
+
+            final Listener[] listeners = mListeners.get();
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].onTriggered(TriggerSensor.this);
+            }
+        }
+    };
+
+    public interface Listener {
+        void onTriggered(@NonNull TriggerSensor sensor);
+    }
+
+    public TriggerSensor(int sensorType) {
+        super(sensorType);
+    }
+
+    public void addListener(@NonNull final Listener listener)
+            throws IllegalArgumentException {
+        if (listener == null) {
+            throw new IllegalArgumentException("null Listener supplied.");
+        }
+
+        mListeners.add(listener);
+    }
+
+    @Override
+    public void clean() {
+        super.clean();
+        mListeners.clear();
+    }
+
+    @Override
+    public synchronized void listen(boolean turnOn) {
+        super.listen(turnOn);
+    }
+
+    @Override
+    protected boolean register(@NonNull final SensorManager sensorManager,
+                               @NonNull final Sensor sensor,
+                               final Handler handler) {
+        // trigger events are always delivered on the main thread
+        return sensorManager.requestTriggerSensor(mTriggerListener, sensor);
+    }
+
+    @Override
+    protected void unregister(@NonNull final SensorManager sensorManager,
+                              @NonNull final Sensor sensor) {
+        sensorManager.cancelTriggerSensor(mTriggerListener, sensor);
+    }
+
+    @Override
+    public void dump(@NonNull final PrintWriter pw) {
+        super.dump(pw);
+        pw.println("    triggers=" + mTriggers);
+    }
+}
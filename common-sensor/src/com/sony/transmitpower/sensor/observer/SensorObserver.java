@@ -8,11 +8,14 @@ import androidx.annotation.NonNull;
 import android.content.Context;
 import android.telephony.ServiceState;
 
+import com.sony.transmitpower.observer.DeviceState;
+import com.sony.transmitpower.observer.ObserverMediator;
 import com.sony.transmitpower.observer.PowerObserverBase;
 import com.sony.transmitpower.observer.ScreenObserver;
 import com.sony.transmitpower.observer.TelecommObserver;
 import com.sony.transmitpower.observer.TelephonyStateObserver;
 import com.sony.transmitpower.sensor.SensorBase;
+import com.sony.transmitpower.sensor.SensorPolicy;
 import com.sony.transmitpower.sensor.SensorState;
 import com.sony.transmitpower.util.Util;
 
@@ -37,6 +40,8 @@ public class SensorObserver
     private static final String TAG = SensorObserver.class.getCanonicalName();
 
     protected SensorBase mSensor = null;
+    private final DeviceState mDeviceState = ObserverMediator.getInstance().getDeviceState();
+    private final SensorPolicy mPolicy;
 
     public SensorObserver(Context context,
                           int key,
@@ -44,6 +49,7 @@ public class SensorObserver
                           int valueOff,
                           int initValue) {
         super(context, key, valueOn, valueOff, initValue);
+        mPolicy = SensorPolicy.getInstance(context);
     }
 
     public void init(@NonNull final SensorBase sensor)
@@ -69,8 +75,11 @@ public class SensorObserver
 
     @Override
     public void onScreenStateChanged(boolean isScreenOn) {
-        updateSensorState(TelephonyStateObserver.isCallActive(mContext),
-                          TelephonyStateObserver.isDataActive(mContext),
+        // call and data state used to be polled
+        mDeviceState.addBinderCallsAvoided(2);
+        updateSensorState(mDeviceState.isCallActive(),
+                          mDeviceState.isBuiltinSpeaker(),
+                          mDeviceState.isDataActive(),
                           isScreenOn);
     }
 
@@ -83,47 +92,63 @@ public class SensorObserver
                           + " initializing observers to current values");
             }
 
-            updateSensorState(TelephonyStateObserver.isCallActive(mContext),
-                          TelephonyStateObserver.isDataActive(mContext),
-                          ScreenObserver.isScreenOn(mContext));
+            // call, data and screen state used to be polled
+            mDeviceState.addBinderCallsAvoided(3);
+            updateSensorState(mDeviceState.isCallActive(),
+                              mDeviceState.isBuiltinSpeaker(),
+                              mDeviceState.isDataActive(),
+                              mDeviceState.isScreenOn());
         }
     }
 
     @Override
     public void onCallAudioStateChanged(boolean isBuiltinSpeaker) {
-        // NOP; not interested in this
+        // routing is an input of the sensor policy
+        updateSensorState(mDeviceState.isCallActive(),
+                          isBuiltinSpeaker,
+                          mDeviceState.isDataActive(),
+                          mDeviceState.isScreenOn());
     }
 
     @Override
     public void onCallStateChanged(boolean isCallActive, boolean isBuiltinSpeaker) {
-        // don't care if the speaker is builtin or not
+        // data and screen state used to be polled
+        mDeviceState.addBinderCallsAvoided(2);
         updateSensorState(isCallActive,
-                          TelephonyStateObserver.isDataActive(mContext),
-                          ScreenObserver.isScreenOn(mContext));
+                          isBuiltinSpeaker,
+                          mDeviceState.isDataActive(),
+                          mDeviceState.isScreenOn());
     }
 
     @Override
     public void onDataStateChanged() {
-        updateSensorState(TelephonyStateObserver.isCallActive(mContext),
-                          TelephonyStateObserver.isDataActive(mContext),
-                          ScreenObserver.isScreenOn(mContext));
+        // call, data and screen state used to be polled
+        mDeviceState.addBinderCallsAvoided(3);
+        updateSensorState(mDeviceState.isCallActive(),
+                          mDeviceState.isBuiltinSpeaker(),
+                          mDeviceState.isDataActive(),
+                          mDeviceState.isScreenOn());
     }
 
-    private void updateSensorState(boolean isCallActive,
-                                   boolean isDataActive,
-                                   boolean isScreenOn) {
+    // telephony and the other observers call back on different threads
+    private synchronized void updateSensorState(boolean isCallActive,
+                                                boolean isBuiltinSpeaker,
+                                                boolean isDataActive,
+                                                boolean isScreenOn) {
 
         if (Util.DEBUG) {
             Util.logd(TAG, "Updating sensor state:"
                       + "\ncall active = " + isCallActive
+                      + "\n   earpiece = " + isBuiltinSpeaker
                       + "\ndata active = " + isDataActive
                       + "\n  screen on = " + isScreenOn);
         }
 
-        final SensorState se = SensorState
-                .getSensorState(isCallActive,
-                                isDataActive,
-                                isScreenOn);
+        final SensorState se = mPolicy
+                .getSensorState(SensorPolicy.pack(isCallActive,
+                                                  isDataActive,
+                                                  isScreenOn,
+                                                  isBuiltinSpeaker));
 
         if (mSensor != null) {
             mSensor.listen(se.isPowerOn());
@@ -9,12 +9,13 @@ import android.content.Context;
 import android.content.Intent;
 
 import com.sony.transmitpower.service.TransmitPowerService;
+import com.sony.transmitpower.util.StartupTiming;
 import com.sony.transmitpower.util.Util;
 
 /**
  * BootCompletedReceiver starts the service upon receiving
  * a BOOT_COMPLETED intent (and in later versions a
- * LOCKED_BOOT_COMPLETED intent).
+ * LOCKED_BOOT_COMPLETED intent), unless it is running already.
  * Why was this design chosen?
  * For example, a JobScheduler may be used to schedule
  * jobs based on network but they need to be setup somewhere, and
@@ -68,6 +69,13 @@ public final class BootCompletedReceiver extends BroadcastReceiver {
             Util.logd(TAG, "BOOT_COMPLETE: " + intent.getAction());
         }
 
+        StartupTiming.onBootIntent(Intent.ACTION_LOCKED_BOOT_COMPLETED.equals(action));
+        // both boot intents are received on direct boot aware devices
+        if (TransmitPowerService.isCreated()) {
+            StartupTiming.onStartSkipped();
+            return;
+        }
+
         intent.setClass(context, TransmitPowerService.class);
         context.startService(intent);
     }
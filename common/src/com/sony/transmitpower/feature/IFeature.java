@@ -7,17 +7,23 @@ package com.sony.transmitpower.feature;
 import androidx.annotation.NonNull;
 import android.content.Context;
 
+import java.io.PrintWriter;
+
 /**
  * IFeature is a simple plugin interface. The idea is
- * to instantiate a feature object uniformly, e.g. upon
- * receiving an intent, initialize it and perform a
+ * to instantiate a feature object uniformly, i.e. by
+ * ObserverMediator from the class names listed in the
+ * {@see TransmitPowerConsts.META_DATA_FEATURES} manifest
+ * meta-data, initialize it and perform a
  * cleanup. In this incarnation, it looks like it can
  * perform any action whatsoever, but in fact most
  * features will only implement initialization of sensor
  * observers in their init methods and the cleanup of
- * said observers in the clean method.
+ * said observers in the clean method, and dump the state
+ * of their sensors.
  */
 public interface IFeature {
     void init(@NonNull Context context);
     void clean(@NonNull Context context);
+    void dump(@NonNull PrintWriter pw);
 }
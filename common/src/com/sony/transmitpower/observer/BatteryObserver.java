@@ -23,7 +23,7 @@ public final class BatteryObserver
 
     private final BroadcastReceiver mBatteryStateReceiver = new BroadcastReceiver() {
         @Override
-        public synchronized void onReceive(Context context, Intent intent) {
+        public void onReceive(Context context, Intent intent) {
             if (context == null || intent == null) {
                 Util.logw(TAG, "BatterStateReceiver null intent");
                 return;
@@ -35,7 +35,10 @@ public final class BatteryObserver
                     return;
             }
 
-            transmitPowerByIntent(intent);
+            // update runs on the telephony thread meanwhile
+            synchronized (BatteryObserver.this) {
+                transmitPowerByIntent(intent);
+            }
         }
     };
 
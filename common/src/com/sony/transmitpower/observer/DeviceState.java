@@ -0,0 +1,109 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.observer;
+
+import androidx.annotation.NonNull;
+import android.content.Context;
+
+import com.sony.transmitpower.util.FlightRecorder;
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshot of the device states observers base their decisions on, i.e.
+ * call, call audio routing, data and screen state. Polled once on init
+ * and from then on maintained by {@see TelecommObserver},
+ * {@see TelephonyStateObserver} and {@see ScreenObserver} from their
+ * events, so reading it is a volatile load instead of a binder call to
+ * AudioManager, TelephonyManager or PowerManager. Every change is
+ * recorded in the {@see FlightRecorder}.
+ */
+public final class DeviceState {
+    private volatile boolean mIsCallActive = false;
+    private volatile boolean mIsBuiltinSpeaker = false;
+    private volatile boolean mIsDataActive = false;
+    private volatile boolean mIsScreenOn = false;
+    private final AtomicLong mBinderCallsAvoided = new AtomicLong();
+
+    DeviceState() {
+        // Intentionally empty.
+    }
+
+    void init(@NonNull final Context context) throws IllegalArgumentException {
+        if (context == null) {
+            throw new IllegalArgumentException("null context supplied.");
+        }
+
+        mIsCallActive = TelephonyStateObserver.isCallActive(context);
+        mIsDataActive = TelephonyStateObserver.isDataActive(context);
+        mIsScreenOn = ScreenObserver.isScreenOn(context);
+    }
+
+    public boolean isCallActive() {
+        return mIsCallActive;
+    }
+
+    public boolean isBuiltinSpeaker() {
+        return mIsBuiltinSpeaker;
+    }
+
+    public boolean isDataActive() {
+        return mIsDataActive;
+    }
+
+    public boolean isScreenOn() {
+        return mIsScreenOn;
+    }
+
+    /**
+     * Counts reads which used to be binder calls, for the dump. Getters
+     * don't count themselves, as not every read replaced a binder call.
+     */
+    public void addBinderCallsAvoided(final int count) {
+        mBinderCallsAvoided.addAndGet(count);
+    }
+
+    void setCallActive(final boolean isCallActive) {
+        if (mIsCallActive != isCallActive) {
+            record(FlightRecorder.SOURCE_CALL, isCallActive);
+        }
+        mIsCallActive = isCallActive;
+    }
+
+    void setBuiltinSpeaker(final boolean isBuiltinSpeaker) {
+        if (mIsBuiltinSpeaker != isBuiltinSpeaker) {
+            record(FlightRecorder.SOURCE_EARPIECE, isBuiltinSpeaker);
+        }
+        mIsBuiltinSpeaker = isBuiltinSpeaker;
+    }
+
+    void setDataActive(final boolean isDataActive) {
+        if (mIsDataActive != isDataActive) {
+            record(FlightRecorder.SOURCE_DATA, isDataActive);
+        }
+        mIsDataActive = isDataActive;
+    }
+
+    void setScreenOn(final boolean isScreenOn) {
+        if (mIsScreenOn != isScreenOn) {
+            record(FlightRecorder.SOURCE_SCREEN, isScreenOn);
+        }
+        mIsScreenOn = isScreenOn;
+    }
+
+    private static void record(final int source, final boolean value) {
+        FlightRecorder.record(source, OemPowerConsts.INVALID_KEY, value ? 1 : 0);
+    }
+
+    public void dump(@NonNull final PrintWriter pw) {
+        pw.println("DeviceState: call=" + mIsCallActive
+                   + " earpiece=" + mIsBuiltinSpeaker
+                   + " data=" + mIsDataActive
+                   + " screen=" + mIsScreenOn
+                   + " binderCallsAvoided=" + mBinderCallsAvoided.get());
+    }
+}
@@ -9,24 +9,36 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.telephony.ServiceState;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
+import com.sony.transmitpower.TransmitQueue;
 import com.sony.transmitpower.Transmitter;
 import com.sony.transmitpower.feature.IFeature;
+import com.sony.transmitpower.util.FlightRecorder;
 import com.sony.transmitpower.util.OemPowerConsts;
+import com.sony.transmitpower.util.StartupTiming;
 import com.sony.transmitpower.util.TransmitPowerConsts;
 import com.sony.transmitpower.util.Util;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Central node in the star topology of the observers. Used as entry point
  * for all observers - both from the executable container (Service) to control
  * the life of observers ({@see init} and {@see clean}) AND from observers
- * to communicate their states to the outside world, i.e. send a message via
- * a local Intent to the modem about the observed state of the world within
- * their respective domain.
+ * to communicate their states to the outside world, i.e. send a message
+ * ({@see transmitPower}) to the modem about the observed state of the world
+ * within their respective domain. Senders outside of the observers may use
+ * a local {@see PowerObserverBase.ACTION_TRANSMIT_POWER_CHANGED} Intent.
  *
  * This design is chosen both for soft architectural reasons (readability and
  * separation of concerns) as well as for a specific future need - addition of
@@ -39,14 +51,20 @@ import java.util.List;
  */
 public final class ObserverMediator {
     private static final String TAG = ObserverMediator.class.getCanonicalName();
+    private static final String FLIGHT_RECORDER_FILE = "flight_recorder";
 
+    private final DeviceState mDeviceState = new DeviceState();
     private final TelephonyStateObserver mTelephonyStateObserver =
-            new TelephonyStateObserver();
-    private final TelecommObserver mTelecommObserver = new TelecommObserver();
-    private final ScreenObserver mScreenObserver = new ScreenObserver();
+            new TelephonyStateObserver(mDeviceState);
+    private final TelecommObserver mTelecommObserver = new TelecommObserver(mDeviceState);
+    private final ScreenObserver mScreenObserver = new ScreenObserver(mDeviceState);
     private final List<PowerObserverBase> mPowerObservers = new ArrayList<>();
-    private final List<IFeature> mFeatures = new ArrayList<>();
+    // dumped from a binder thread while the main thread adds features
+    private final List<IFeature> mFeatures = new CopyOnWriteArrayList<>();
+    // writes to the modem off the main thread
+    private final TransmitQueue mTransmitQueue = new TransmitQueue();
 
+    // adapter for external senders of ACTION_TRANSMIT_POWER_CHANGED
     private final BroadcastReceiver mTransmitPowerStateReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -67,7 +85,28 @@ public final class ObserverMediator {
                           OemPowerConsts.INVALID_KEY);
             final int value = intent.getIntExtra(PowerObserverBase.TRANSMIT_POWER_VALUE,
                           OemPowerConsts.INVALID_VALUE);
-            Transmitter.transmitPower(key, value);
+            // external senders may not stamp their events
+            final long eventTime = intent.getLongExtra(PowerObserverBase.TRANSMIT_POWER_TIME,
+                          SystemClock.elapsedRealtimeNanos());
+            transmitPower(key, value, eventTime);
+        }
+    };
+
+    // the modem may have been reset meanwhile, so tell it every value again
+    // once it's back in service
+    private final TelephonyStateObserver.Listener mReconcileListener =
+            new TelephonyStateObserver.Listener() {
+        @Override
+        public void onServiceStateChanged(int state) {
+            if (state == ServiceState.STATE_IN_SERVICE
+                    || state == ServiceState.STATE_EMERGENCY_ONLY) {
+                mTransmitQueue.resync();
+            }
+        }
+
+        @Override
+        public void onDataStateChanged() {
+            // NOP; not interested in this
         }
     };
 
@@ -100,16 +139,31 @@ public final class ObserverMediator {
             throw new IllegalArgumentException("null context supplied");
         }
 
-        // Register broadcast intent for transmit power
-        final IntentFilter intentFilter =
-                new IntentFilter(PowerObserverBase.ACTION_TRANSMIT_POWER_CHANGED);
-        LocalBroadcastManager.getInstance(context)
-            .registerReceiver(mTransmitPowerStateReceiver, intentFilter);
+        initTransmitQueue(context, null);
+
+        if (Util.getBooleanResource(context, "config_flight_recorder_spill", false)) {
+            // device protected, so it's there before the user unlocks
+            final Context storageContext = context.createDeviceProtectedStorageContext();
+            // file IO, keep it off the main thread while it starts; nothing
+            // is written to the modem before observers are initialized below
+            mTransmitQueue.post(new Runnable() {
+                @Override
+                public void run() {
+                    FlightRecorder.spill(new File(storageContext.getFilesDir(),
+                                                  FLIGHT_RECORDER_FILE));
+                }
+            });
+        }
+
+        registerTransmitPowerReceiver(context);
 
         // initialize global state observers
+        mDeviceState.init(context);
         mTelephonyStateObserver.init(context);
         mTelecommObserver.init(context);
         mScreenObserver.init(context);
+        // added first so the modem is resynced before observers update
+        mTelephonyStateObserver.addListener(mReconcileListener);
 
         // create power modifying observers
         PowerObserverBase batteryObserver = new BatteryObserver(context,
@@ -138,8 +192,118 @@ public final class ObserverMediator {
         mTelecommObserver.addListener((VoiceCallObserver) voiceCallObserver);
 
         // initialize additional features if any
-        final Intent intent = new Intent(TransmitPowerConsts.ACTION_FEATURE);
-        context.sendBroadcast(intent, TransmitPowerConsts.PERMISSION_FEATURE);
+        initFeatures(context);
+    }
+
+    /**
+     * Restarts the transmit path on looper without observing the device,
+     * e.g. to replay recorded inputs on one thread in virtual time. The
+     * caller feeds inputs into its own global state observers, built on
+     * {@see getDeviceState}; telephonyStateObserver gets the listener
+     * resyncing the modem when back in service.
+     */
+    void startReplay(@NonNull final Context context,
+                     @NonNull final Looper looper,
+                     @NonNull final TelephonyStateObserver telephonyStateObserver) {
+        mTransmitQueue.quit();
+        initTransmitQueue(context, looper);
+        telephonyStateObserver.addListener(mReconcileListener);
+    }
+
+    /**
+     * Registers the adapter for external senders of
+     * {@see PowerObserverBase.ACTION_TRANSMIT_POWER_CHANGED}; also used by
+     * benchmarks to compare the broadcast with {@see transmitPower}.
+     */
+    void registerTransmitPowerReceiver(@NonNull final Context context) {
+        final IntentFilter intentFilter =
+                new IntentFilter(PowerObserverBase.ACTION_TRANSMIT_POWER_CHANGED);
+        LocalBroadcastManager.getInstance(context)
+            .registerReceiver(mTransmitPowerStateReceiver, intentFilter);
+    }
+
+    void unregisterTransmitPowerReceiver(@NonNull final Context context) {
+        LocalBroadcastManager.getInstance(context)
+            .unregisterReceiver(mTransmitPowerStateReceiver);
+    }
+
+    /**
+     * @param looper Looper to write to the modem on, or null for a worker
+     *               thread of the queue.
+     */
+    private void initTransmitQueue(@NonNull final Context context, final Looper looper) {
+        mTransmitQueue.setReleaseDwell(OemPowerConsts.PSENSOR_EXT,
+                Util.getIntegerResource(context, "config_psensor_release_dwell_ms", 0));
+        mTransmitQueue.setReleaseDwell(OemPowerConsts.ACCSENSOR_EXT,
+                Util.getIntegerResource(context, "config_accsensor_release_dwell_ms", 0));
+        mTransmitQueue.start(looper);
+    }
+
+    /**
+     * Instantiates and initializes the features declared in the
+     * {@see TransmitPowerConsts.META_DATA_FEATURES} meta-data of the app.
+     * A feature failing to initialize is skipped.
+     */
+    private void initFeatures(@NonNull final Context context) {
+        final String features;
+        try {
+            final ApplicationInfo info = context.getPackageManager()
+                    .getApplicationInfo(context.getPackageName(),
+                                        PackageManager.GET_META_DATA);
+            features = info.metaData == null
+                    ? null
+                    : info.metaData.getString(TransmitPowerConsts.META_DATA_FEATURES);
+        } catch (PackageManager.NameNotFoundException e) {
+            Util.loge(TAG, "Can't read features: " + e);
+            return;
+        }
+
+        if (features == null) {
+            return;
+        }
+
+        for (String name : features.split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+
+            try {
+                final IFeature feature = (IFeature) Class.forName(name)
+                        .getDeclaredConstructor().newInstance();
+                feature.init(context);
+                mFeatures.add(feature);
+                if (Util.DEBUG) {
+                    Util.logd(TAG, "Feature initialized: " + name);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                Util.loge(TAG, "Can't initialize feature " + name + ": " + e);
+            }
+        }
+        StartupTiming.onFeaturesInitialized();
+    }
+
+    /**
+     * Schedules a change of state to be sent to the modem. Called by
+     * observers from any thread; never blocks on the modem and doesn't
+     * allocate.
+     *
+     * @param key            OEM key of the observer.
+     * @param value          New value of key.
+     * @param eventTimeNanos SystemClock.elapsedRealtimeNanos of the event
+     *                       causing the change.
+     */
+    public void transmitPower(final int key, final int value, final long eventTimeNanos) {
+        FlightRecorder.record(FlightRecorder.SOURCE_ENQUEUE, key, value);
+        mTransmitQueue.enqueue(key, value, eventTimeNanos);
+    }
+
+    /**
+     * @return Call, data and screen state maintained by the global
+     *         state observers.
+     */
+    public DeviceState getDeviceState() {
+        return mDeviceState;
     }
 
     public void addFeature(@NonNull IFeature feature) throws IllegalArgumentException {
@@ -182,6 +346,20 @@ public final class ObserverMediator {
         mTelecommObserver.addListener(listener);
     }
 
+    public void dump(@NonNull final PrintWriter pw) {
+        StartupTiming.dump(pw);
+        mDeviceState.dump(pw);
+        mTelephonyStateObserver.dump(pw);
+        Transmitter.dump(pw);
+        mTransmitQueue.dump(pw);
+        pw.println("Sensors:");
+        // iterates a snapshot of the features
+        for (IFeature feature : mFeatures) {
+            feature.dump(pw);
+        }
+        FlightRecorder.dump(pw);
+    }
+
     /**
      * Clean all the observers using Service context, e.g. unregister
      * receivers and listeners.
@@ -193,8 +371,7 @@ public final class ObserverMediator {
             throw new IllegalArgumentException("null context supplied.");
         }
 
-        LocalBroadcastManager.getInstance(context)
-            .unregisterReceiver(mTransmitPowerStateReceiver);
+        unregisterTransmitPowerReceiver(context);
 
         // clean observers
         int n = mPowerObservers.size();
@@ -211,5 +388,7 @@ public final class ObserverMediator {
         for (int i = 0; i < n; i++) {
             mFeatures.get(i).clean(context);
         }
+
+        mTransmitQueue.quit();
     }
 }
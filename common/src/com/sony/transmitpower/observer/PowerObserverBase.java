@@ -5,8 +5,7 @@
 package com.sony.transmitpower.observer;
 
 import android.content.Context;
-import android.content.Intent;
-import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import android.os.SystemClock;
 
 import com.sony.transmitpower.util.Util;
 
@@ -14,11 +13,18 @@ import com.sony.transmitpower.util.Util;
  * Base class for all observers required to report their state to the
  * modem. Contains definitions of observer's name (key) and
  * interpretations of states - power excitation levels i.e. on/off
- * states, as well as messaging routine, i.e. intent broadcast to the
+ * states, as well as messaging routine, i.e. a direct call to the
  * mediator.
+ *
+ * Observers are called from several threads, e.g. receivers on the main
+ * thread and telephony listeners on a thread of their own, so the value
+ * last transmitted is checked and set under a lock. The lock is only
+ * held up to the enqueue, so it can't take part in a deadlock with the
+ * locks of sensors calling back into an observer.
  */
 public class PowerObserverBase {
     private static final String TAG = PowerObserverBase.class.getCanonicalName();
+    private final Object mLock = new Object();
     private int mCurrentValue;
 
     protected final Context mContext;
@@ -26,10 +32,13 @@ public class PowerObserverBase {
     protected final int mValueOn;
     protected final int mValueOff;
 
+    // for senders outside of the observers, see ObserverMediator
     public static final String ACTION_TRANSMIT_POWER_CHANGED =
             "com.sony.intent.action.TRANSMIT_POWER_CHANGED";
     public static final String TRANSMIT_POWER_KEY = "transmit_power_key";
     public static final String TRANSMIT_POWER_VALUE = "transmit_power_value";
+    // SystemClock.elapsedRealtimeNanos of the event causing the change
+    public static final String TRANSMIT_POWER_TIME = "transmit_power_time";
 
 
     public PowerObserverBase(Context context,
@@ -49,37 +58,39 @@ public class PowerObserverBase {
     }
 
     public void update(int value) {
-        mCurrentValue = value;
+        synchronized (mLock) {
+            mCurrentValue = value;
+        }
     }
 
 
     protected void transmitPower(int value) {
+        final long eventTime = SystemClock.elapsedRealtimeNanos();
         if (mContext == null) {
             Util.logw(TAG, "null context.");
             return;
         }
 
-        if (value == mCurrentValue) {
-            if (Util.DEBUG) {
-                Util.logd(TAG, "key (" + mKey + ") value not changed from " + value);
+        synchronized (mLock) {
+            if (value == mCurrentValue) {
+                if (Util.DEBUG) {
+                    Util.logd(TAG, "key (" + mKey + ") value not changed from " + value);
+                }
+                return;
             }
-            return;
-        }
 
-        if (value != mValueOn && value != mValueOff) {
-            Util.logw(TAG, "Invalid value (" + value + ") transmit attempt.");
-            return;
-        }
+            if (value != mValueOn && value != mValueOff) {
+                Util.logw(TAG, "Invalid value (" + value + ") transmit attempt.");
+                return;
+            }
 
-        if (Util.DEBUG) {
-            Util.logd(TAG, "key (" + mKey + ") -> value:" + value);
-        }
+            if (Util.DEBUG) {
+                Util.logd(TAG, "key (" + mKey + ") -> value:" + value);
+            }
 
-        mCurrentValue = value;
-        final Intent intent = new Intent(ACTION_TRANSMIT_POWER_CHANGED);
-        intent.putExtra(TRANSMIT_POWER_KEY, mKey);
-        intent.putExtra(TRANSMIT_POWER_VALUE, value);
-        intent.setClass(mContext, ObserverMediator.class);
-        LocalBroadcastManager.getInstance(mContext).sendBroadcast(intent);
+            mCurrentValue = value;
+            // under the lock, so values are enqueued in the order they were set
+            ObserverMediator.getInstance().transmitPower(mKey, value, eventTime);
+        }
     }
 }
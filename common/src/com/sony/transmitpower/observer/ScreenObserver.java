@@ -11,16 +11,19 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.PowerManager;
 
+import com.sony.transmitpower.util.ListenerRegistry;
 import com.sony.transmitpower.util.Util;
 
-import java.util.ArrayList;
-import java.util.List;
-
-
+/**
+ * Observes screen state and dispatches it to subscribed listeners.
+ * Keeps screen state of {@see DeviceState} up to date.
+ */
 public final class ScreenObserver {
     private static final String TAG = ScreenObserver.class.getCanonicalName();
 
-    private final List<Listener> mListeners = new ArrayList<>();
+    private final ListenerRegistry<Listener> mListeners =
+            new ListenerRegistry<>(new Listener[0]);
+    private final DeviceState mDeviceState;
     private final BroadcastReceiver mScreenStateReceiver = new BroadcastReceiver(){
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -36,11 +39,7 @@ public final class ScreenObserver {
                     return;
                 }
 
-                final int n = mListeners.size();
-                for (int i = 0; i < n; i++) {
-                    final Listener listener = mListeners.get(i);
-                    listener.onScreenStateChanged(ScreenObserver.isScreenOn(context));
-                }
+                dispatchScreenState(Intent.ACTION_SCREEN_ON.equals(action));
             }
         };
 
@@ -48,8 +47,13 @@ public final class ScreenObserver {
         void onScreenStateChanged(boolean isScreenOn);
     }
 
-    public ScreenObserver() {
-        // Intentionally empty.
+    public ScreenObserver(@NonNull final DeviceState deviceState)
+            throws IllegalArgumentException {
+        if (deviceState == null) {
+            throw new IllegalArgumentException("null DeviceState supplied.");
+        }
+
+        mDeviceState = deviceState;
     }
 
     public void init(@NonNull final Context context) throws IllegalArgumentException {
@@ -80,6 +84,16 @@ public final class ScreenObserver {
         mListeners.add(listener);
     }
 
+    // also called to replay inputs, see ObserverMediator.startReplay
+    void dispatchScreenState(final boolean isScreenOn) {
+        mDeviceState.setScreenOn(isScreenOn);
+
+        final Listener[] listeners = mListeners.get();
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onScreenStateChanged(isScreenOn);
+        }
+    }
+
     public static boolean isScreenOn(@NonNull final Context context)
             throws IllegalArgumentException, IllegalStateException {
         if (context == null) {
@@ -12,26 +12,31 @@ import android.content.IntentFilter;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.sony.transmitpower.service.InCallObserverService;
+import com.sony.transmitpower.util.ListenerRegistry;
 import com.sony.transmitpower.util.Util;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Observes state of a call. Receives an explicit local intent
  * from an InCallService about a state of call (active/inactive
  * or audio routing changes) and dispatches further to subscribed
- * listeners.
+ * listeners. Keeps call state of {@see DeviceState} up to date.
  */
 public final class TelecommObserver extends BroadcastReceiver {
     private static final String TAG = TelecommObserver.class.getCanonicalName();
 
-    private final Set<Listener> mListeners = new HashSet();
+    private final ListenerRegistry<Listener> mListeners =
+            new ListenerRegistry<>(new Listener[0]);
+    private final DeviceState mDeviceState;
     private boolean mIsCallActive = false;
     private boolean mIsBuiltinSpeaker = false;
 
-    public TelecommObserver() {
-        // Intentionally empty.
+    public TelecommObserver(@NonNull final DeviceState deviceState)
+            throws IllegalArgumentException {
+        if (deviceState == null) {
+            throw new IllegalArgumentException("null DeviceState supplied.");
+        }
+
+        mDeviceState = deviceState;
     }
 
     public void init(@NonNull final Context context) throws IllegalArgumentException {
@@ -84,28 +89,32 @@ public final class TelecommObserver extends BroadcastReceiver {
             mIsCallActive = intent.getBooleanExtra(InCallObserverService
                                                    .EXTRA_IS_CALL_ACTIVE,
                                                    false);
+            mDeviceState.setCallActive(mIsCallActive);
             if (Util.DEBUG) {
                 Util.logd(TAG, "CALL_STATE_CHANGED:"
                           + "\ncall active: " + mIsCallActive
                           + "\nspeaker: " + mIsBuiltinSpeaker);
             }
 
-            for (Listener listener : mListeners) {
-                listener.onCallStateChanged(mIsCallActive, mIsBuiltinSpeaker);
+            final Listener[] listeners = mListeners.get();
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].onCallStateChanged(mIsCallActive, mIsBuiltinSpeaker);
             }
         } else if (InCallObserverService.ACTION_INCALL_AUDIO_STATE_CHANGED
                        .equals(action)) {
             mIsBuiltinSpeaker = intent.getBooleanExtra(InCallObserverService
                                                        .EXTRA_IS_SPEAKER,
                                                        false);
+            mDeviceState.setBuiltinSpeaker(mIsBuiltinSpeaker);
             if (Util.DEBUG) {
                 Util.logd(TAG, "AUDIO_STATE_CHANGED:"
                           + "\ncall active: " + mIsCallActive
                           + "\nspeaker: " + mIsBuiltinSpeaker);
             }
 
-            for (Listener listener : mListeners) {
-                listener.onCallAudioStateChanged(mIsBuiltinSpeaker);
+            final Listener[] listeners = mListeners.get();
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].onCallAudioStateChanged(mIsBuiltinSpeaker);
             }
         } else {
             Util.logw(TAG, "Unknown intent: " + action);
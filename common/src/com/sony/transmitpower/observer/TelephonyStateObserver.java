@@ -7,40 +7,145 @@ package com.sony.transmitpower.observer;
 import androidx.annotation.NonNull;
 import android.content.Context;
 import android.media.AudioManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyCallback;
 import android.telephony.TelephonyManager;
 
+import com.sony.transmitpower.util.FlightRecorder;
+import com.sony.transmitpower.util.LatencyHistogram;
+import com.sony.transmitpower.util.ListenerRegistry;
 import com.sony.transmitpower.util.Util;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Observes state of telephony service, i.e. subscription (including
  * data) and dispatches information further to subscribed listeners.
- * Also, provides static methods to poll for current states.
+ * Keeps data state of {@see DeviceState} up to date. Also, provides
+ * static methods to poll for current states.
+ *
+ * Data activity is merged across SIMs and only edges are dispatched:
+ * data becoming active is dispatched right away, data becoming dormant
+ * only once it stayed dormant for the data activity window, so the
+ * storm of direction changes during a transfer costs listeners nothing.
+ *
+ * Telephony callbacks, a TelephonyCallback per SIM or a
+ * PhoneStateListener before Android S, run on a thread of the observer
+ * rather than the main thread, and so are the listeners.
+ * config_telephony_callbacks_on_main_thread moves them back to the main
+ * thread. The delay from telephony handing a TelephonyCallback to the
+ * observer until it runs is kept in a histogram, to compare the two.
  */
 public final class TelephonyStateObserver {
     private static final String TAG = TelephonyStateObserver.class.getCanonicalName();
 
+    private static final int MSG_DISPATCH = 1;
+
     private TelephonyManager mTelephonyManager;
     private SubscriptionManager mSubscriptionManager;
-    private final Set<Listener> mListeners = new HashSet();
-    private final List<PhoneStateListenerImpl> mPhoneStateListeners =
-            new ArrayList<>();
+    // listeners are notified in the order they were added
+    private final ListenerRegistry<Listener> mListeners =
+            new ListenerRegistry<>(new Listener[0]);
+    private final DeviceState mDeviceState;
+    private HandlerThread mThread;
+    // all of the below are confined to the thread of mHandler
+    private Handler mHandler;
+    private final List<SubscriptionObserver> mSubscriptionObservers = new ArrayList<>();
+    private long mDataActivityWindowMs = 0;
+    // data state as last dispatched
+    private boolean mIsDataActive = false;
+    private volatile long mRawDataEvents = 0;
+    private volatile long mDeliveredDataEvents = 0;
+    private volatile long mRegistrations = 0;
+    private volatile long mRegistrationsAvoided = 0;
+    private final LatencyHistogram mDispatchDelays =
+            new LatencyHistogram("callback dispatch delay");
+
+    // runs telephony callbacks on the thread of mHandler; the time they
+    // were handed over is split over the int arguments of a pooled
+    // message rather than kept in a Runnable allocated per callback
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            final long now = SystemClock.elapsedRealtimeNanos();
+            mHandler.obtainMessage(MSG_DISPATCH, (int) (now >>> 32), (int) now, command)
+                    .sendToTarget();
+        }
+    };
+
+    private final Handler.Callback mCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            if (msg.what != MSG_DISPATCH) {
+                return false;
+            }
+
+            final long executeTime = ((long) msg.arg1 << 32) | (msg.arg2 & 0xffffffffL);
+            mDispatchDelays.record(SystemClock.elapsedRealtimeNanos() - executeTime);
+            ((Runnable) msg.obj).run();
+            return true;
+        }
+    };
+
+    private final Runnable mDataDormantRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mIsDataActive && !isAnyDataActive()) {
+                dispatchDataState(false);
+            }
+        }
+    };
+
+    private final Runnable mUpdateSubscriptionsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            updateSubscriptions();
+        }
+    };
+
+    private final Runnable mCleanRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mHandler.removeCallbacks(mDataDormantRunnable);
+            mHandler.removeCallbacks(mUpdateSubscriptionsRunnable);
+            for (SubscriptionObserver observer : mSubscriptionObservers) {
+                observer.unregister();
+            }
+            mSubscriptionObservers.clear();
+        }
+    };
 
+    /**
+     * Called on the observer's background thread, not the main thread,
+     * unless config_telephony_callbacks_on_main_thread is set. Listeners
+     * also handling broadcasts, which run on the main thread, have to
+     * synchronize state shared between the two, as e.g.
+     * {@see BatteryObserver} and {@see WifiObserver} do.
+     */
     public interface Listener {
         void onServiceStateChanged(int state);
         void onDataStateChanged();
     }
 
-    public TelephonyStateObserver() {
-        // Intentionally empty.
+    public TelephonyStateObserver(@NonNull final DeviceState deviceState)
+            throws IllegalArgumentException {
+        if (deviceState == null) {
+            throw new IllegalArgumentException("null DeviceState supplied.");
+        }
+
+        mDeviceState = deviceState;
     }
 
     public void init(@NonNull final Context context) throws IllegalArgumentException {
@@ -48,6 +153,17 @@ public final class TelephonyStateObserver {
             throw new IllegalArgumentException("null context supplied.");
         }
 
+        if (Util.getBooleanResource(context, "config_telephony_callbacks_on_main_thread",
+                                    false)) {
+            mHandler = new Handler(context.getMainLooper(), mCallback);
+        } else {
+            mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper(), mCallback);
+        }
+        mDataActivityWindowMs = Util.getIntegerResource(context,
+                "config_data_activity_window_ms", 0);
+        mIsDataActive = mDeviceState.isDataActive();
         mTelephonyManager = context.getSystemService(TelephonyManager.class);
         mSubscriptionManager = SubscriptionManager.from(context);
         mSubscriptionManager.addOnSubscriptionsChangedListener(mSubscriptionListener);
@@ -56,10 +172,11 @@ public final class TelephonyStateObserver {
     public void clean() {
         mListeners.clear();
         mSubscriptionManager.removeOnSubscriptionsChangedListener(mSubscriptionListener);
-        for (PhoneStateListenerImpl listener : mPhoneStateListeners) {
-            listener.listen(PhoneStateListener.LISTEN_NONE);
+        mHandler.post(mCleanRunnable);
+        if (mThread != null) {
+            mThread.quitSafely();
+            mThread = null;
         }
-        mPhoneStateListeners.clear();
     }
 
     public void addListener(@NonNull final Listener listener)
@@ -97,48 +214,193 @@ public final class TelephonyStateObserver {
             throw new IllegalStateException("TelephonyManager is null");
         }
 
-        int dataActivity = tm.getDataActivity();
+        return isDataActivity(tm.getDataActivity());
+    }
+
+    private static boolean isDataActivity(final int dataActivity) {
         return TelephonyManager.DATA_ACTIVITY_IN == dataActivity
             || TelephonyManager.DATA_ACTIVITY_OUT == dataActivity
             || TelephonyManager.DATA_ACTIVITY_INOUT == dataActivity;
     }
 
+    public void dump(@NonNull final PrintWriter pw) {
+        pw.println("TelephonyStateObserver: data events raw=" + mRawDataEvents
+                   + " delivered=" + mDeliveredDataEvents
+                   + " window=" + mDataActivityWindowMs + "ms"
+                   + " registrations=" + mRegistrations
+                   + " registrationsAvoided=" + mRegistrationsAvoided
+                   + " thread=" + (mThread != null ? "own" : "main"));
+        mDispatchDelays.dump(pw, "  ");
+    }
+
+    /**
+     * Moves the listener of subId from previous to the current listeners,
+     * or creates and registers one if there is none.
+     */
+    private void keepOrAddListener(final List<SubscriptionObserver> previous,
+                                   final int subId) {
+        for (int i = 0; i < previous.size(); i++) {
+            if (previous.get(i).mSubId == subId) {
+                mSubscriptionObservers.add(previous.remove(i));
+                mRegistrationsAvoided++;
+                return;
+            }
+        }
+
+        final TelephonyManager manager =
+                subId == SubscriptionManager.DEFAULT_SUBSCRIPTION_ID
+                ? mTelephonyManager
+                : mTelephonyManager.createForSubscriptionId(subId);
+        final SubscriptionObserver observer = new SubscriptionObserver(manager, subId);
+        mSubscriptionObservers.add(observer);
+        observer.register();
+        mRegistrations++;
+
+        if (Util.DEBUG) {
+            Util.logd(TAG, "onSubscriptionsChanged() : added subId = " + subId);
+        }
+    }
+
+    // data is active if it is on any SIM
+    private boolean isAnyDataActive() {
+        final int n = mSubscriptionObservers.size();
+        for (int i = 0; i < n; i++) {
+            if (mSubscriptionObservers.get(i).mIsDataActive) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void updateDataActive() {
+        mRawDataEvents++;
+        final boolean isDataActive = isAnyDataActive();
+        if (isDataActive == mIsDataActive) {
+            // back to the dispatched state within the window
+            mHandler.removeCallbacks(mDataDormantRunnable);
+            return;
+        }
+
+        if (isDataActive || mDataActivityWindowMs <= 0) {
+            mHandler.removeCallbacks(mDataDormantRunnable);
+            dispatchDataState(isDataActive);
+        } else if (!mHandler.hasCallbacks(mDataDormantRunnable)) {
+            mHandler.postDelayed(mDataDormantRunnable, mDataActivityWindowMs);
+        }
+    }
+
+    // also called to replay inputs, see ObserverMediator.startReplay
+    void dispatchDataState(final boolean isDataActive) {
+        mIsDataActive = isDataActive;
+        mDeliveredDataEvents++;
+        mDeviceState.setDataActive(isDataActive);
+
+        final Listener[] listeners = mListeners.get();
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onDataStateChanged();
+        }
+    }
+
+    // also called to replay inputs, see ObserverMediator.startReplay
+    void dispatchServiceState(final int subId, final int state) {
+        FlightRecorder.record(FlightRecorder.SOURCE_SERVICE, subId, state);
+        final Listener[] listeners = mListeners.get();
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onServiceStateChanged(state);
+        }
+
+        if (Util.DEBUG) {
+            Util.logd(TAG, "onServiceStateChanged(): "
+                      + "subId = " + subId
+                      + ", state = " + state);
+        }
+    }
+
+    // Called multiple times, mostly with unchanged subscriptions: only
+    // touch observers of SIMs which came or went so the others aren't
+    // resynced.
+    private void updateSubscriptions() {
+        final List<SubscriptionObserver> previous = new ArrayList<>(mSubscriptionObservers);
+        mSubscriptionObservers.clear();
+
+        final List<SubscriptionInfo> subInfos = mSubscriptionManager
+                .getActiveSubscriptionInfoList();
+        if (subInfos == null || subInfos.isEmpty()) {
+            // Use an observer for the default telephony manager:
+            keepOrAddListener(previous, SubscriptionManager.DEFAULT_SUBSCRIPTION_ID);
+
+            if (Util.DEBUG) {
+                Util.logd(TAG,
+                        "onSubscriptionsChanged() :"
+                        + "SIM is not inserted or unavailable");
+            }
+        } else {
+            for (SubscriptionInfo info : subInfos) {
+                keepOrAddListener(previous, info.getSubscriptionId());
+            }
+        }
+
+        // Unregister observers of SIMs which are gone
+        for (SubscriptionObserver observer : previous) {
+            observer.unregister();
+            if (Util.DEBUG) {
+                Util.logd(TAG, "onSubscriptionsChanged() : removed subId = "
+                          + observer.mSubId);
+            }
+        }
+        if (!previous.isEmpty()) {
+            updateDataActive();
+        }
+    }
+
     // for each SIM:
-    private final class PhoneStateListenerImpl extends PhoneStateListener {
+    private final class SubscriptionObserver {
         // Keep track of the relevant manager (bound to subId) for deregistration purposes.
         private final TelephonyManager mTelephonyManager;
         private final int mSubId;
+        // TelephonyCallbackImpl from S on, PhoneStateListenerImpl before;
+        // TelephonyCallback mustn't be referred to before S
+        private final boolean mIsTelephonyCallback;
+        private final Object mCallback;
+        private boolean mIsDataActive = false;
 
-        PhoneStateListenerImpl(TelephonyManager manager, int subId) {
-            super();
+        SubscriptionObserver(TelephonyManager manager, int subId) {
             mTelephonyManager = manager;
             mSubId = subId;
+            mIsTelephonyCallback = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S;
+            mCallback = mIsTelephonyCallback
+                    ? new TelephonyCallbackImpl(this)
+                    : new PhoneStateListenerImpl(this);
         }
 
-        void listen(int events) {
-            mTelephonyManager.listen(this, events);
+        void register() {
+            if (mIsTelephonyCallback) {
+                mTelephonyManager.registerTelephonyCallback(mExecutor,
+                                                            (TelephonyCallback) mCallback);
+            } else {
+                mTelephonyManager.listen((PhoneStateListener) mCallback,
+                                         PhoneStateListener.LISTEN_SERVICE_STATE
+                                         | PhoneStateListener.LISTEN_DATA_ACTIVITY);
+            }
         }
 
-        @Override
-        public void onServiceStateChanged(ServiceState serviceState) {
-            final int state = serviceState.getState();
-            for (Listener listener : mListeners) {
-                listener.onServiceStateChanged(state);
+        void unregister() {
+            if (mIsTelephonyCallback) {
+                mTelephonyManager.unregisterTelephonyCallback((TelephonyCallback) mCallback);
+            } else {
+                mTelephonyManager.listen((PhoneStateListener) mCallback,
+                                         PhoneStateListener.LISTEN_NONE);
             }
+        }
 
-            if (Util.DEBUG) {
-                Util.logd(TAG, "onServiceStateChanged(): "
-                          + "subId = " + mSubId
-                          + ", state = " + state);
-            }
+        void onServiceStateChanged(final int state) {
+            dispatchServiceState(mSubId, state);
         }
 
-        @Override
-        public void onDataActivity(int direction) {
+        void onDataActivity(final int direction) {
             // we don't care about direction, any will do
-            for (Listener listener : mListeners) {
-                listener.onDataStateChanged();
-            }
+            mIsDataActive = isDataActivity(direction);
+            updateDataActive();
 
             if (Util.DEBUG) {
                 Util.logd(TAG, "onDataActivity(): "
@@ -146,55 +408,57 @@ public final class TelephonyStateObserver {
                           + ", direction = " + direction);
             }
         }
-    };
+    }
+
+    private final class TelephonyCallbackImpl
+            extends TelephonyCallback
+            implements TelephonyCallback.ServiceStateListener,
+                       TelephonyCallback.DataActivityListener {
+        private final SubscriptionObserver mObserver;
+
+        TelephonyCallbackImpl(SubscriptionObserver observer) {
+            mObserver = observer;
+        }
+
+        @Override
+        public void onServiceStateChanged(ServiceState serviceState) {
+            mObserver.onServiceStateChanged(serviceState.getState());
+        }
+
+        @Override
+        public void onDataActivity(int direction) {
+            mObserver.onDataActivity(direction);
+        }
+    }
+
+    // calls back on the looper of the thread constructing it, i.e. the
+    // observer's thread
+    private final class PhoneStateListenerImpl extends PhoneStateListener {
+        private final SubscriptionObserver mObserver;
+
+        PhoneStateListenerImpl(SubscriptionObserver observer) {
+            super();
+            mObserver = observer;
+        }
+
+        @Override
+        public void onServiceStateChanged(ServiceState serviceState) {
+            mObserver.onServiceStateChanged(serviceState.getState());
+        }
+
+        @Override
+        public void onDataActivity(int direction) {
+            mObserver.onDataActivity(direction);
+        }
+    }
 
-    // Listen the status of SIM and register listeners to TelephonyManager
+    // Listen the status of SIM and update observers on the observer's thread
     private final SubscriptionManager.OnSubscriptionsChangedListener
             mSubscriptionListener = new SubscriptionManager
                     .OnSubscriptionsChangedListener() {
                 @Override
                 public void onSubscriptionsChanged() {
-                    // Reset listeners because onSubscriptionsChanged()
-                    // is called multiple times.
-                    for (PhoneStateListenerImpl listener : mPhoneStateListeners) {
-                        listener.listen(PhoneStateListener.LISTEN_NONE);
-                    }
-                    mPhoneStateListeners.clear();
-
-                    // Create listeners for each SIM
-                    final List<SubscriptionInfo> subInfos = mSubscriptionManager
-                            .getActiveSubscriptionInfoList();
-                    if (subInfos == null || subInfos.isEmpty()) {
-                        // Create a listener for the default telephony manager:
-                        mPhoneStateListeners.add(
-                            new PhoneStateListenerImpl(mTelephonyManager,
-                                SubscriptionManager.DEFAULT_SUBSCRIPTION_ID));
-
-                        if (Util.DEBUG) {
-                            Util.logd(TAG,
-                                    "onSubscriptionsChanged() :"
-                                    + "SIM is not inserted or unavailable");
-                        }
-                    } else {
-                        for (SubscriptionInfo info : subInfos) {
-                            final int subId = info.getSubscriptionId();
-                            final TelephonyManager managerForSubId
-                                    = mTelephonyManager.createForSubscriptionId(subId);
-                            mPhoneStateListeners.add(
-                                new PhoneStateListenerImpl(managerForSubId, subId));
-
-                            if (Util.DEBUG) {
-                                Util.logd(TAG, "onSubscriptionsChanged() : subId = "
-                                          + subId);
-                            }
-                        }
-                    }
-
-                    // Register listeners to TelephonyManager
-                    for (PhoneStateListenerImpl listener : mPhoneStateListeners) {
-                        listener.listen(PhoneStateListener.LISTEN_SERVICE_STATE
-                                        | PhoneStateListener.LISTEN_DATA_ACTIVITY);
-                    }
+                    mHandler.post(mUpdateSubscriptionsRunnable);
                 }
             };
 }
@@ -24,29 +24,32 @@ public final class WifiObserver
     private final WifiManager mWifiManager;
     private final BroadcastReceiver mWifiStateReceiver = new BroadcastReceiver() {
             @Override
-            public synchronized void onReceive(Context context, Intent intent) {
+            public void onReceive(Context context, Intent intent) {
                 if (context == null || intent == null) return;
 
                 final String action = intent.getAction();
-                int wifiApP2pValue = mValueOff;
-
-                if (WifiManager.WIFI_AP_STATE_CHANGED_ACTION.equals(action)) {
-                    wifiApP2pValue = getWifiApP2pValueByState(getApState());
-                    if (wifiApP2pValue == OemPowerConsts.INVALID_VALUE) {
+                // update runs on the telephony thread meanwhile
+                synchronized (WifiObserver.this) {
+                    int wifiApP2pValue = mValueOff;
+
+                    if (WifiManager.WIFI_AP_STATE_CHANGED_ACTION.equals(action)) {
+                        wifiApP2pValue = getWifiApP2pValueByState(getApState());
+                        if (wifiApP2pValue == OemPowerConsts.INVALID_VALUE) {
+                            return;
+                        }
+                    } else if (WifiP2pManager
+                               .WIFI_P2P_DISCOVERY_CHANGED_ACTION.equals(action)) {
+                        wifiApP2pValue = getWifiApP2pValueByDiscovery(getApState(), intent);
+                    } else if (WifiP2pManager
+                               .WIFI_P2P_CONNECTION_CHANGED_ACTION.equals(action)) {
+                        wifiApP2pValue = getWifiApP2pValueByConnection(getApState(), intent);
+                    } else {
+                        Util.logw(TAG, "Unknown action: " + action);
                         return;
                     }
-                } else if (WifiP2pManager
-                           .WIFI_P2P_DISCOVERY_CHANGED_ACTION.equals(action)) {
-                    wifiApP2pValue = getWifiApP2pValueByDiscovery(getApState(), intent);
-                } else if (WifiP2pManager
-                           .WIFI_P2P_CONNECTION_CHANGED_ACTION.equals(action)) {
-                    wifiApP2pValue = getWifiApP2pValueByConnection(getApState(), intent);
-                } else {
-                    Util.logw(TAG, "Unknown action: " + action);
-                    return;
-                }
 
-                transmitPower(wifiApP2pValue);
+                    transmitPower(wifiApP2pValue);
+                }
             }
         };
 
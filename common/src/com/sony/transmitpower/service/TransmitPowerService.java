@@ -11,8 +11,13 @@ import android.os.Process;
 import android.os.UserHandle;
 
 import com.sony.transmitpower.observer.ObserverMediator;
+import com.sony.transmitpower.util.FlightRecorder;
+import com.sony.transmitpower.util.StartupTiming;
 import com.sony.transmitpower.util.Util;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /**
  * Controls the life of device state observers responsible to
  * report to modem about imminent changes in power levels. It
@@ -21,18 +26,31 @@ import com.sony.transmitpower.util.Util;
  */
 public final class TransmitPowerService extends Service {
     private static final String TAG = TransmitPowerService.class.getCanonicalName();
+    // dumpsys argument printing the flight recorder as a trace only
+    private static final String ARG_TRACE = "--trace";
     private final ObserverMediator mObserverMediator = ObserverMediator.getInstance();
+    private static volatile boolean sIsCreated = false;
+
+    /**
+     * @return Whether the service is created in this process.
+     */
+    public static boolean isCreated() {
+        return sIsCreated;
+    }
 
     @Override
     public void onCreate() {
         super.onCreate();
+        sIsCreated = true;
 
         // run for owner only
         if (Process.myUserHandle() != UserHandle.SYSTEM) {
             return;
         }
 
+        StartupTiming.onServiceCreated();
         mObserverMediator.init(this);
+        StartupTiming.onInitDone();
         if (Util.DEBUG) Util.logd(TAG, "created");
     }
 
@@ -47,9 +65,20 @@ public final class TransmitPowerService extends Service {
         return null;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (args != null && args.length > 0 && ARG_TRACE.equals(args[0])) {
+            FlightRecorder.dumpTrace(pw);
+            return;
+        }
+
+        mObserverMediator.dump(pw);
+    }
+
     @Override
     public void onDestroy() {
         mObserverMediator.clean(this);
+        sIsCreated = false;
         if (Util.DEBUG) Util.logd(TAG, "destroyed");
 
         super.onDestroy();
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2017, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Copy-on-write set of listeners backed by an array. Registration
+ * copies the array and is safe from any thread; dispatch iterates a
+ * snapshot without locking or allocating:
+ *
+ * <pre>
+ *     final Listener[] listeners = mListeners.get();
+ *     for (int i = 0; i < listeners.length; i++) {
+ *         listeners[i].onSomething();
+ *     }
+ * </pre>
+ *
+ * Listeners are notified in the order they were added.
+ */
+public final class ListenerRegistry<T> {
+    private volatile T[] mListeners;
+    private final T[] mEmpty;
+
+    /**
+     * @param empty Empty array of the listener type, e.g.
+     *              {@code new Listener[0]}.
+     */
+    public ListenerRegistry(@NonNull final T[] empty) throws IllegalArgumentException {
+        if (empty == null || empty.length != 0) {
+            throw new IllegalArgumentException("empty array required");
+        }
+
+        mEmpty = empty;
+        mListeners = empty;
+    }
+
+    /**
+     * @return false if listener was already added.
+     */
+    public synchronized boolean add(@NonNull final T listener) throws IllegalArgumentException {
+        if (listener == null) {
+            throw new IllegalArgumentException("null Listener supplied.");
+        }
+
+        final T[] listeners = mListeners;
+        for (T l : listeners) {
+            if (l == listener) {
+                return false;
+            }
+        }
+
+        final T[] added = Arrays.copyOf(listeners, listeners.length + 1);
+        added[listeners.length] = listener;
+        mListeners = added;
+        return true;
+    }
+
+    /**
+     * @return false if listener wasn't added.
+     */
+    public synchronized boolean remove(final T listener) {
+        final T[] listeners = mListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                final T[] removed = Arrays.copyOf(mEmpty, listeners.length - 1);
+                System.arraycopy(listeners, 0, removed, 0, i);
+                System.arraycopy(listeners, i + 1, removed, i, listeners.length - i - 1);
+                mListeners = removed;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        mListeners = mEmpty;
+    }
+
+    /**
+     * @return Snapshot of the listeners to dispatch to. Must not be
+     *         modified.
+     */
+    public T[] get() {
+        return mListeners;
+    }
+}
@@ -6,12 +6,11 @@ package com.sony.transmitpower.util;
 
 /**
  * Constants used in project:
- *   - intent definitions
+ *   - manifest meta-data definitions
  */
 public final class TransmitPowerConsts {
-    // intents
-    public static final String ACTION_FEATURE =
-            "com.sony.transmitpower.intent.action.FEATURE";
-    public static final String PERMISSION_FEATURE =
-            "com.sony.transmitpower.permission.FEATURE";
+    // application meta-data: comma separated class names of IFeature
+    // implementations with a public no-argument constructor
+    public static final String META_DATA_FEATURES =
+            "com.sony.transmitpower.features";
 }
@@ -12,6 +12,7 @@ import android.content.IntentFilter;
 import android.util.Log;
 
 public final class Util {
+    private static final String TAG = Util.class.getCanonicalName();
     public static final boolean DEBUG = false;
 
     public static void logd(@NonNull final String tag, final String message)
@@ -52,6 +53,51 @@ public final class Util {
         return context.registerReceiver(null, f);
     }
 
+    /**
+     * Looks up an integer resource of the app by name. Libraries without
+     * generated resources (R) of their own use this to read
+     * configuration merged into the app from TransPowerCommon_res.
+     */
+    public static int getIntegerResource(@NonNull final Context context,
+                                         @NonNull final String name,
+                                         final int defaultValue)
+            throws IllegalArgumentException {
+        if (context == null || name == null) {
+            throw new IllegalArgumentException("Context and name can't be null.");
+        }
+
+        final int id = context.getResources()
+                .getIdentifier(name, "integer", context.getPackageName());
+        if (id == 0) {
+            logw(TAG, "No integer resource " + name);
+            return defaultValue;
+        }
+
+        return context.getResources().getInteger(id);
+    }
+
+    /**
+     * Looks up a boolean resource of the app by name, see
+     * {@see getIntegerResource}.
+     */
+    public static boolean getBooleanResource(@NonNull final Context context,
+                                             @NonNull final String name,
+                                             final boolean defaultValue)
+            throws IllegalArgumentException {
+        if (context == null || name == null) {
+            throw new IllegalArgumentException("Context and name can't be null.");
+        }
+
+        final int id = context.getResources()
+                .getIdentifier(name, "bool", context.getPackageName());
+        if (id == 0) {
+            logw(TAG, "No bool resource " + name);
+            return defaultValue;
+        }
+
+        return context.getResources().getBoolean(id);
+    }
+
     private Util() {
         // Intentionally empty
     }
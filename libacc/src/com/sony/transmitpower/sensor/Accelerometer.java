@@ -10,12 +10,12 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
 
-import com.sony.transmitpower.sensor.util.Vector;
+import com.sony.transmitpower.util.ListenerRegistry;
 import com.sony.transmitpower.util.Util;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.io.PrintWriter;
 
 /**
  * Class that implements acquisition of accelerometer data
@@ -26,22 +26,133 @@ import java.util.Set;
  * management tests over calculating square error in
  * either Cartesian or polar coordinates or over
  * "dead reckoning" through Runge-Kutta integration.
+ *
+ * The compared value is the mean absolute acceleration per axis over a
+ * sliding window of config_motion_window_ms, by event timestamps, so
+ * batched events are accounted for when they happened rather than when
+ * they were delivered. Samples are kept in a ring of primitives with
+ * running sums, so an event doesn't allocate. Listeners are only told
+ * about changes of the motion state.
+ *
+ * TYPE_LINEAR_ACCELERATION is usually a fused sensor keeping the
+ * gyroscope running. With config_motion_raw_accelerometer the raw
+ * TYPE_ACCELEROMETER is used instead and gravity is removed in place
+ * by tracking it with a low-pass filter of time constant
+ * config_motion_gravity_time_constant_ms, by event timestamps. The
+ * estimate is kept across pauses in listening, as the first samples
+ * after one are often taken while moving; it is only seeded from the
+ * very first sample, and motion isn't decided on until it has settled.
+ *
+ * The sensor hub may hold samples for config_motion_max_report_latency_ms
+ * and deliver them as a batch, optionally on a thread of its own with
+ * config_motion_sensor_thread. Every sample goes into the window, which
+ * only the delivering thread touches, so a sample takes no lock. The
+ * motion state is decided once per delivered run of samples, after its
+ * last one, so a backlog doesn't report edges which are already over.
+ *
+ * With config_motion_triggers, listening doesn't stream all the time:
+ * once Sensor.TYPE_STATIONARY_DETECT fires, streaming stops and
+ * TYPE_MOTION_DETECT is armed in the sensor hub instead, which starts
+ * streaming again when it fires. Without both sensors the accelerometer
+ * streams while listened to.
+ *
+ * Streaming starts at config_motion_fast_period_ms. After the device has
+ * been stable for config_motion_slow_after_ms, by event timestamps, the
+ * accelerometer is re-registered at config_motion_slow_period_ms, and
+ * back at the fast period on the first window over the threshold.
  */
 public final class Accelerometer
         extends SensorBase
         implements SensorEventListener {
     private static final String TAG = Accelerometer.class.getCanonicalName();
 
-    private static final int SAMPLING_COUNT = 5;
+    // sensors don't deliver faster than 200 Hz; the ring holds a window at
+    // that rate, as a sensor delivers faster than the requested period
+    // while another client samples it faster
+    private static final int MIN_PERIOD_MS = 5;
     private static final int AXIS_X = SensorManager.AXIS_X - 1;
     private static final int AXIS_Y = SensorManager.AXIS_Y - 1;
     private static final int AXIS_Z = SensorManager.AXIS_Z - 1;
+    private static final long NANOS_PER_MS = 1000000L;
+    private static final int MICROS_PER_MS = 1000;
+    // time constants of the gravity filter until a seeded estimate settles
+    private static final int GRAVITY_SETTLE_TIME_CONSTANTS = 3;
 
     private float mMotionThreshold;
-    private int mSampleCount = 0;
-    private Vector mRunningSum = new Vector(0.0f, 0.0f, 0.0f);
+    private long mWindowNanos;
+    private boolean mIsRaw = false;
+    private long mGravityTimeConstantNanos;
+    private int mFastPeriodMs;
+    private int mSlowPeriodMs;
+    private long mSlowAfterNanos;
+    private boolean mIsSlow = false;
+    // timestamp of the stable decision since which it has been stable
+    private long mStableSince = 0;
+    private long mRateChanges = 0;
 
-    private final Set<Listener> mListeners = new HashSet();
+    private final TriggerSensor mMotionTrigger = new TriggerSensor(Sensor.TYPE_MOTION_DETECT);
+    private final TriggerSensor mStationaryTrigger =
+            new TriggerSensor(Sensor.TYPE_STATIONARY_DETECT);
+    private boolean mUseTriggers = false;
+    // trigger sensors are looked up when first listened to, like sensors
+    private boolean mHasLookedUpTriggers = false;
+    // listened to, and whether accelerometer events are streaming or a
+    // motion trigger is armed instead
+    private boolean mIsArmed = false;
+    private volatile boolean mIsStreaming = false;
+
+    // decides after the run of samples being delivered, on its thread
+    private volatile Handler mDecisionHandler;
+    private final Runnable mDecision = new Runnable() {
+        @Override
+        public void run() {
+            mIsDecisionPending = false;
+            decide();
+        }
+    };
+
+    private final TriggerSensor.Listener mTriggerListener = new TriggerSensor.Listener() {
+        @Override
+        public void onTriggered(@NonNull TriggerSensor sensor) {
+            onTrigger(sensor == mMotionTrigger);
+        }
+    };
+
+    // gravity estimate in raw mode, the timestamp of its last update and
+    // the timestamp from which it is settled
+    private float mGravityX = 0.0f;
+    private float mGravityY = 0.0f;
+    private float mGravityZ = 0.0f;
+    private long mGravityTime = 0;
+    private long mGravitySettledTime = 0;
+
+    // bumped by each pause, after which the window is stale
+    private volatile int mGeneration = 0;
+
+    // on the delivering thread only: the generation of the window, ring of
+    // absolute accelerations and their timestamps, oldest at mHead, sized
+    // in init from the window
+    private int mWindowGeneration = 0;
+    private int mRingSize;
+    private float[] mX;
+    private float[] mY;
+    private float[] mZ;
+    private long[] mTimes;
+    private int mHead = 0;
+    private int mCount = 0;
+    private float mSumX = 0.0f;
+    private float mSumY = 0.0f;
+    private float mSumZ = 0.0f;
+    // timestamp of the first sample since listening, the window is full
+    // once it is a window old
+    private long mFirstTime = 0;
+    private long mLastTime = 0;
+    private boolean mIsDecisionPending = false;
+    private boolean mHasState = false;
+    private boolean mIsStable = false;
+
+    private final ListenerRegistry<Listener> mListeners =
+            new ListenerRegistry<>(new Listener[0]);
 
     public interface Listener {
         void onMotionStateChanged(boolean isStable);
@@ -68,61 +179,330 @@ public final class Accelerometer
 
         mMotionThreshold = context.getResources()
             .getFloat(R.dimen.config_motion_threshold);
+        mWindowNanos = context.getResources()
+            .getInteger(R.integer.config_motion_window_ms) * NANOS_PER_MS;
+        mIsRaw = context.getResources()
+            .getBoolean(R.bool.config_motion_raw_accelerometer);
+        mGravityTimeConstantNanos = context.getResources()
+            .getInteger(R.integer.config_motion_gravity_time_constant_ms) * NANOS_PER_MS;
+        if (mIsRaw) {
+            setSensorType(Sensor.TYPE_ACCELEROMETER);
+        }
+
+        final int maxReportLatencyMs = context.getResources()
+            .getInteger(R.integer.config_motion_max_report_latency_ms);
+        mFastPeriodMs = context.getResources()
+            .getInteger(R.integer.config_motion_fast_period_ms);
+        if (mFastPeriodMs < MIN_PERIOD_MS) {
+            Util.logw(TAG, "Fast period " + mFastPeriodMs + "ms too short, using "
+                      + MIN_PERIOD_MS + "ms");
+            mFastPeriodMs = MIN_PERIOD_MS;
+        }
+        // the ring overflowing would shorten the window
+        mRingSize = (int) (mWindowNanos / (MIN_PERIOD_MS * NANOS_PER_MS)) + 1;
+        mX = new float[mRingSize];
+        mY = new float[mRingSize];
+        mZ = new float[mRingSize];
+        mTimes = new long[mRingSize];
+        mSlowPeriodMs = context.getResources()
+            .getInteger(R.integer.config_motion_slow_period_ms);
+        mSlowAfterNanos = context.getResources()
+            .getInteger(R.integer.config_motion_slow_after_ms) * NANOS_PER_MS;
+        setDelivery(mFastPeriodMs * MICROS_PER_MS,
+                    maxReportLatencyMs * MICROS_PER_MS,
+                    context.getResources().getBoolean(R.bool.config_motion_sensor_thread));
+
+        mUseTriggers = context.getResources().getBoolean(R.bool.config_motion_triggers);
+        mHasLookedUpTriggers = false;
+        if (mUseTriggers) {
+            mMotionTrigger.init(context);
+            mStationaryTrigger.init(context);
+            mMotionTrigger.addListener(mTriggerListener);
+            mStationaryTrigger.addListener(mTriggerListener);
+        }
     }
 
+    private void lookUpTriggers() {
+        mHasLookedUpTriggers = true;
+        mUseTriggers = mMotionTrigger.isAvailable() && mStationaryTrigger.isAvailable();
+        if (!mUseTriggers) {
+            Util.logw(TAG, "No motion and stationary detect sensors, streaming instead");
+        }
+    }
 
     @Override
     public void clean() {
         super.clean();
+        // also when the lookup found no trigger sensor, for their listeners
+        mMotionTrigger.clean();
+        mStationaryTrigger.clean();
+        // the delivering thread is gone
+        mDecisionHandler = null;
         mListeners.clear();
+        reset();
     }
 
     @Override
-    public void onSensorChanged(SensorEvent event) {
+    public synchronized void listen(boolean turnOn) {
+        if (turnOn && !mIsArmed) {
+            if (mUseTriggers && !mHasLookedUpTriggers) {
+                lookUpTriggers();
+            }
+            mIsArmed = true;
+            // the motion state is unknown, so start out streaming
+            stream(true);
+        } else if (!turnOn && mIsArmed) {
+            mIsArmed = false;
+            stream(false);
+        }
+    }
+
+    /**
+     * Starts or stops streaming accelerometer events. With triggers, waits
+     * for stationary or, while listened to, for motion instead.
+     */
+    private void stream(final boolean turnOn) {
+        // samples and state from before a pause are stale
+        if (!turnOn) {
+            reset();
+        }
+        super.listen(turnOn);
+        mIsStreaming = turnOn;
+        if (turnOn && mDecisionHandler == null) {
+            mDecisionHandler = new Handler(getDeliveryLooper());
+        }
+        if (!turnOn) {
+            // start out fast next time
+            setSlow(false);
+        }
+
+        if (mUseTriggers) {
+            mStationaryTrigger.listen(turnOn);
+            mMotionTrigger.listen(!turnOn && mIsArmed);
+        }
+    }
+
+    private synchronized void onTrigger(final boolean isMotion) {
+        // a trigger may fire while being cancelled
+        if (!mIsArmed || isMotion == mIsStreaming) {
+            return;
+        }
+
         if (Util.DEBUG) {
-            Util.logd(TAG, "onSensorChanged");
+            Util.logd(TAG, isMotion ? "motion trigger" : "stationary trigger");
+        }
+
+        if (!isMotion && !(mHasState && mIsStable)) {
+            notifyListeners(true);
+        }
+        stream(isMotion);
+    }
+
+    @Override
+    protected void onSensorEvent(SensorEvent event) {
+        if (event.sensor.getType() != getSensorType()) return;
+        // events may still be delivered after unregistering
+        if (!mIsStreaming) return;
+
+        final int generation = mGeneration;
+        if (generation != mWindowGeneration) {
+            clearWindow();
+            mWindowGeneration = generation;
+        }
+
+        final long now = event.timestamp;
+        if (mIsRaw) {
+            trackGravity(now, event.values);
+            add(now,
+                Math.abs(event.values[AXIS_X] - mGravityX),
+                Math.abs(event.values[AXIS_Y] - mGravityY),
+                Math.abs(event.values[AXIS_Z] - mGravityZ));
+        } else {
+            add(now,
+                Math.abs(event.values[AXIS_X]),
+                Math.abs(event.values[AXIS_Y]),
+                Math.abs(event.values[AXIS_Z]));
+        }
+
+        // drop samples which left the window
+        while (mCount > 1 && now - mTimes[mHead] >= mWindowNanos) {
+            removeOldest();
         }
+        mLastTime = now;
 
-        if (event.sensor.getType() != Sensor.TYPE_LINEAR_ACCELERATION) return;
+        // the rest of the run is delivered before the decision
+        final Handler handler = mDecisionHandler;
+        if (!mIsDecisionPending && handler != null) {
+            mIsDecisionPending = true;
+            handler.post(mDecision);
+        }
+    }
+
+    /**
+     * Decides the motion state on the window up to the last sample of a
+     * delivered run. On the delivering thread.
+     */
+    private synchronized void decide() {
+        // paused since the run was delivered
+        if (!mIsStreaming || mWindowGeneration != mGeneration) {
+            return;
+        }
 
-        // stat:
-        mRunningSum = mRunningSum.plus(new Vector(Math.abs(event.values[AXIS_X]),
-                                                  Math.abs(event.values[AXIS_Y]),
-                                                  Math.abs(event.values[AXIS_Z])));
+        final long now = mLastTime;
+        if (now - mFirstTime < mWindowNanos || (mIsRaw && now < mGravitySettledTime)) {
+            return;
+        }
+
+        final float threshold = mMotionThreshold * mCount;
+        final boolean isStable = mSumX <= threshold
+                && mSumY <= threshold
+                && mSumZ <= threshold;
 
         if (Util.DEBUG) {
-            Util.logd(TAG, "Running stat: " + mRunningSum);
-            Util.logd(TAG, "iteration: " + mSampleCount);
+            Util.logd(TAG, "samples: " + mCount
+                      + ", average: " + mSumX / mCount
+                      + ", " + mSumY / mCount
+                      + ", " + mSumZ / mCount);
+        }
+
+        if (!isStable) {
+            setSlow(false);
+        } else if (!mHasState || !mIsStable) {
+            mStableSince = now;
+        } else if (!mIsSlow && now - mStableSince >= mSlowAfterNanos) {
+            setSlow(true);
         }
 
-        if (mSampleCount <= SAMPLING_COUNT) {
-            mSampleCount++;
+        if (mHasState && isStable == mIsStable) {
             return;
         }
 
-        final Vector avg = mRunningSum.times((float) 1 / mSampleCount);
         if (Util.DEBUG) {
-            Util.logd(TAG, "Average: " + avg);
+            Util.logd(TAG, isStable ? "motion stopped" : "motion detected");
         }
 
-        boolean isDetected = avg.x > mMotionThreshold
-                || avg.y > mMotionThreshold
-                || avg.z > mMotionThreshold;
+        notifyListeners(isStable);
+    }
 
-        if (Util.DEBUG && isDetected) {
-            Util.logd(TAG, "motion detected");
+    private void setSlow(final boolean isSlow) {
+        if (isSlow == mIsSlow) {
+            return;
         }
 
-        for (Listener listener: mListeners) {
-            listener.onMotionStateChanged(!isDetected);
+        if (Util.DEBUG) {
+            Util.logd(TAG, isSlow ? "sampling slow" : "sampling fast");
         }
 
-        mRunningSum.x = mRunningSum.y = mRunningSum.z = 0.0f;
-        mSampleCount = 0;
+        mIsSlow = isSlow;
+        mRateChanges++;
+        setSamplingPeriod((isSlow ? mSlowPeriodMs : mFastPeriodMs) * MICROS_PER_MS);
+    }
+
+    private void notifyListeners(final boolean isStable) {
+        mHasState = true;
+        mIsStable = isStable;
+        final Listener[] listeners = mListeners.get();
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onMotionStateChanged(isStable);
+        }
     }
 
     @Override
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
         // NOP; We don't care about accuracy
     }
+
+    @Override
+    public void dump(@NonNull final PrintWriter pw) {
+        super.dump(pw);
+        pw.println("    sampling " + (mIsSlow ? "slow" : "fast")
+                   + ", rate changes=" + mRateChanges);
+        if (mUseTriggers) {
+            mMotionTrigger.dump(pw);
+            mStationaryTrigger.dump(pw);
+        }
+    }
+
+    /**
+     * Moves the gravity estimate towards values by a first order low-pass
+     * filter, weighted by the time since the previous sample so batched
+     * or irregular samples are handled. The first sample is taken as
+     * gravity. A pause weighs no more than a slow sampling period, so the
+     * first sample after it doesn't replace the estimate.
+     */
+    private void trackGravity(final long time, final float[] values) {
+        if (mGravityTime == 0) {
+            mGravityX = values[AXIS_X];
+            mGravityY = values[AXIS_Y];
+            mGravityZ = values[AXIS_Z];
+            mGravitySettledTime = time
+                    + GRAVITY_SETTLE_TIME_CONSTANTS * mGravityTimeConstantNanos;
+        } else {
+            final float dt = Math.min(Math.max(0, time - mGravityTime),
+                                      mSlowPeriodMs * NANOS_PER_MS);
+            final float alpha = dt / (mGravityTimeConstantNanos + dt);
+            mGravityX += alpha * (values[AXIS_X] - mGravityX);
+            mGravityY += alpha * (values[AXIS_Y] - mGravityY);
+            mGravityZ += alpha * (values[AXIS_Z] - mGravityZ);
+        }
+        mGravityTime = time;
+    }
+
+    private void add(final long time, final float x, final float y, final float z) {
+        if (mFirstTime == 0) {
+            mFirstTime = time;
+        }
+        if (mCount == mRingSize) {
+            removeOldest();
+        }
+
+        final int tail = (mHead + mCount) % mRingSize;
+        mX[tail] = x;
+        mY[tail] = y;
+        mZ[tail] = z;
+        mTimes[tail] = time;
+        mCount++;
+        mSumX += x;
+        mSumY += y;
+        mSumZ += z;
+
+        // start over from exact sums once a ring, so rounding errors of
+        // the running sums don't add up
+        if (tail == mRingSize - 1) {
+            resum();
+        }
+    }
+
+    private void removeOldest() {
+        mSumX -= mX[mHead];
+        mSumY -= mY[mHead];
+        mSumZ -= mZ[mHead];
+        mHead = (mHead + 1) % mRingSize;
+        mCount--;
+    }
+
+    private void resum() {
+        mSumX = mSumY = mSumZ = 0.0f;
+        for (int i = 0; i < mCount; i++) {
+            final int index = (mHead + i) % mRingSize;
+            mSumX += mX[index];
+            mSumY += mY[index];
+            mSumZ += mZ[index];
+        }
+    }
+
+    private synchronized void reset() {
+        // the delivering thread clears the window on its next sample
+        mGeneration++;
+        mHasState = false;
+    }
+
+    private void clearWindow() {
+        // a decision may have been dropped with the thread it was posted to
+        mIsDecisionPending = false;
+        mHead = 0;
+        mCount = 0;
+        mSumX = mSumY = mSumZ = 0.0f;
+        mFirstTime = 0;
+    }
 }
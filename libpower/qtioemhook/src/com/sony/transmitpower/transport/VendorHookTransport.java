@@ -0,0 +1,158 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.transport;
+
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import vendor.qti.hardware.radio.qtioemhook.V1_0.IQtiOemHook;
+import vendor.qti.hardware.radio.qtioemhook.V1_0.IQtiOemHookIndication;
+import vendor.qti.hardware.radio.qtioemhook.V1_0.IQtiOemHookResponse;
+
+/**
+ * Transport over the vendor extension replacing the OEMHOOK API on
+ * Qualcomm platforms, the IQtiOemHook HAL. The HAL takes the same raw
+ * frames but answers asynchronously, so send waits for the response
+ * callback matching its request serial.
+ *
+ * Only built when the transpower Soong config namespace sets
+ * vendor_oemhook, as it links the vendor's generated HIDL library.
+ */
+public final class VendorHookTransport implements TransmitTransport {
+    private static final String TAG = VendorHookTransport.class.getCanonicalName();
+
+    private static final String SERVICE_NAME = "oemhook0";
+    // RIL_E_RADIO_NOT_AVAILABLE, negated as returned by send
+    private static final int RADIO_NOT_AVAILABLE = 1;
+    private static final long RESPONSE_TIMEOUT_MS = 1000;
+
+    private final ResponseCallback mResponseCallback = new ResponseCallback();
+    private final IQtiOemHookIndication.Stub mIndicationCallback =
+            new IQtiOemHookIndication.Stub() {
+        @Override
+        public void oemHookRawIndication(ArrayList<Byte> data) {
+            // NOP; not interested in indications
+        }
+    };
+    // reused for every request; Byte.valueOf is cached, so filling it
+    // doesn't allocate once it has grown to the largest frame
+    private final ArrayList<Byte> mRequest = new ArrayList<>();
+    private IQtiOemHook mService;
+    private int mSerial = 0;
+
+    /**
+     * @return The vendor transport, or null if it isn't built in.
+     */
+    public static TransmitTransport create() {
+        return new VendorHookTransport();
+    }
+
+    private VendorHookTransport() {
+        // Intentionally empty.
+    }
+
+    @Override
+    public int send(final byte[] request, final byte[] response) {
+        if (!connect()) {
+            return -RADIO_NOT_AVAILABLE;
+        }
+
+        mRequest.clear();
+        for (byte b : request) {
+            mRequest.add(b);
+        }
+
+        final int serial = ++mSerial;
+        mResponseCallback.expect(serial, response);
+        try {
+            mService.oemHookRawRequest(serial, mRequest);
+        } catch (RemoteException e) {
+            Log.e(TAG, "oemHookRawRequest failed: " + e);
+            mService = null;
+            mResponseCallback.expect(0, null);
+            return -RADIO_NOT_AVAILABLE;
+        }
+
+        return mResponseCallback.await(RESPONSE_TIMEOUT_MS);
+    }
+
+    private boolean connect() {
+        if (mService != null) {
+            return true;
+        }
+
+        try {
+            final IQtiOemHook service = IQtiOemHook.getService(SERVICE_NAME, false);
+            service.setCallback(mResponseCallback, mIndicationCallback);
+            mService = service;
+            return true;
+        } catch (RemoteException | NoSuchElementException e) {
+            Log.e(TAG, "IQtiOemHook not available: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Receives oemHookRawResponse for the one outstanding request;
+     * stale responses are ignored.
+     */
+    private static final class ResponseCallback extends IQtiOemHookResponse.Stub {
+        private int mExpectedSerial = 0;
+        private byte[] mResponse;
+        private int mResult;
+        private boolean mDone;
+
+        synchronized void expect(final int serial, final byte[] response) {
+            mExpectedSerial = serial;
+            mResponse = response;
+            mDone = false;
+        }
+
+        synchronized int await(final long timeoutMs) {
+            final long deadline = System.currentTimeMillis() + timeoutMs;
+            long remaining = timeoutMs;
+            while (!mDone && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+
+            mExpectedSerial = 0;
+            mResponse = null;
+            if (!mDone) {
+                Log.e(TAG, "oemHookRawResponse timed out");
+                return -GENERIC_FAILURE;
+            }
+            return mResult;
+        }
+
+        @Override
+        public synchronized void oemHookRawResponse(int serial, int error,
+                                                    ArrayList<Byte> data) {
+            if (serial != mExpectedSerial) {
+                return;
+            }
+
+            if (error != 0) {
+                mResult = -error;
+            } else {
+                final int n = Math.min(data.size(), mResponse.length);
+                for (int i = 0; i < n; i++) {
+                    mResponse[i] = data.get(i);
+                }
+                mResult = n;
+            }
+            mDone = true;
+            notifyAll();
+        }
+    }
+}
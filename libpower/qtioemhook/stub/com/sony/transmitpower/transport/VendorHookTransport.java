@@ -0,0 +1,23 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.transport;
+
+/**
+ * Stands in for the IQtiOemHook transport when the transpower Soong
+ * config namespace doesn't set vendor_oemhook, i.e. when the vendor's
+ * HIDL library isn't available to link against.
+ */
+public final class VendorHookTransport {
+    /**
+     * @return The vendor transport, or null if it isn't built in.
+     */
+    public static TransmitTransport create() {
+        return null;
+    }
+
+    private VendorHookTransport() {
+        // Intentionally empty.
+    }
+}
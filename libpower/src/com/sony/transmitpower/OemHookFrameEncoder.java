@@ -0,0 +1,129 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower;
+
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes SET_TRANSMIT_POWER requests into preallocated OEMHOOK
+ * frames. The header (OEM identifier, request ID and payload size) is
+ * written once on construction and only the key/value pairs are
+ * rewritten per request, so encoding does not allocate.
+ *
+ * Batch frames (SET_TRANSMIT_POWER_BATCH) carry a count followed by one
+ * key/value pair per key. Since the modem is handed the whole array,
+ * one frame is preallocated for every possible count.
+ *
+ * Not thread safe: the request and response buffers are shared by all
+ * calls, so callers must serialize access (see {@see Transmitter}).
+ */
+final class OemHookFrameEncoder {
+    private static final byte[] OEM_IDENTIFIER_BYTES =
+            OemPowerConsts.OEM_IDENTIFIER.getBytes(StandardCharsets.US_ASCII);
+
+    private static final int KEY_OFFSET = OemPowerConsts.HEADER_SIZE;
+    private static final int VALUE_OFFSET = KEY_OFFSET + OemPowerConsts.INT_SIZE;
+    private static final int PAIR_SIZE = 2 * OemPowerConsts.INT_SIZE;
+
+    private final ByteBuffer mRequest =
+            allocateFrame(OemPowerConsts.OEMHOOK_EVT_HOOK_SET_TRANSMIT_POWER,
+                          OemPowerConsts.INT_SIZE,
+                          OemPowerConsts.SET_TRANSMIT_POWER_SIZE);
+    // indexed by number of pairs, 0 and 1 unused
+    private final ByteBuffer[] mBatchRequests =
+            new ByteBuffer[OemPowerConsts.KEY_COUNT + 1];
+    private final byte[] mResponse = new byte[OemPowerConsts.RESPONSE_SIZE];
+    private final ByteBuffer mResponseBuffer = ByteBuffer.wrap(mResponse)
+            .order(ByteOrder.nativeOrder());
+
+    OemHookFrameEncoder() {
+        for (int count = 2; count <= OemPowerConsts.KEY_COUNT; count++) {
+            final int payloadSize = OemPowerConsts.INT_SIZE + count * PAIR_SIZE;
+            mBatchRequests[count] =
+                    allocateFrame(OemPowerConsts.OEMHOOK_EVT_HOOK_SET_TRANSMIT_POWER_BATCH,
+                                  payloadSize,
+                                  OemPowerConsts.HEADER_SIZE + payloadSize);
+            mBatchRequests[count].putInt(count);
+        }
+    }
+
+    /**
+     * Writes key and value into the request frame.
+     *
+     * @return The backing array of the request frame, valid until the
+     *         next call to encode.
+     */
+    byte[] encode(final int key, final int value) {
+        mRequest.putInt(KEY_OFFSET, key);
+        mRequest.putInt(VALUE_OFFSET, value);
+        return mRequest.array();
+    }
+
+    /**
+     * Writes a key/value pair for every key set in keys into a batch
+     * frame.
+     *
+     * @param keys   Bitmask of at least two OEM keys.
+     * @param values Values indexed by bit position of their key.
+     * @return The backing array of the batch frame, valid until the
+     *         next call to encodeBatch.
+     */
+    byte[] encodeBatch(final int keys, final int[] values) {
+        final ByteBuffer request = mBatchRequests[Integer.bitCount(keys)];
+        int offset = OemPowerConsts.SET_TRANSMIT_POWER_BATCH_HEADER_SIZE;
+        for (int remaining = keys; remaining != 0; remaining &= remaining - 1) {
+            final int key = Integer.lowestOneBit(remaining);
+            request.putInt(offset, key);
+            request.putInt(offset + OemPowerConsts.INT_SIZE,
+                           values[Integer.numberOfTrailingZeros(key)]);
+            offset += PAIR_SIZE;
+        }
+        return request.array();
+    }
+
+    /**
+     * @return The preallocated buffer the modem response is written to.
+     */
+    byte[] response() {
+        return mResponse;
+    }
+
+    /**
+     * @return true if the last response starts like a frame, with the
+     *         OEM identifier.
+     */
+    boolean responseStartsWithOemIdentifier() {
+        for (int i = 0; i < OEM_IDENTIFIER_BYTES.length; i++) {
+            if (mResponse[i] != OEM_IDENTIFIER_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The int at offset of the last response.
+     */
+    int responseInt(final int offset) {
+        return mResponseBuffer.getInt(offset);
+    }
+
+    private static ByteBuffer allocateFrame(final int requestId,
+                                            final int payloadSize,
+                                            final int frameSize) {
+        final ByteBuffer frame = ByteBuffer.allocate(frameSize)
+                .order(ByteOrder.nativeOrder());
+        frame.put(OEM_IDENTIFIER_BYTES);
+        // Add Request ID
+        frame.putInt(requestId);
+        // Add Request payload size
+        frame.putInt(payloadSize);
+        return frame;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower;
+
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import java.io.PrintWriter;
+
+/**
+ * Aggregate transmit power state as written to the modem: the last
+ * value per OEM key and the combined bitmask of sources (keys) whose
+ * value is not {@see OemPowerConsts.VALUE_OFF}. It is the authoritative
+ * mirror of what the modem was told, so writes of a value the modem
+ * already has can be dropped whichever observer sends them.
+ *
+ * A key whose state is unknown, e.g. after a failed write or a modem
+ * restart, holds {@see OemPowerConsts.INVALID_VALUE} so that the next
+ * write of it goes through.
+ */
+final class TransmitPowerRegister {
+    // all indexed by bit position of the key
+    private final int[] mValues = new int[OemPowerConsts.KEY_COUNT];
+    private final long[] mDropCounts = new long[OemPowerConsts.KEY_COUNT];
+    private final long[] mMismatchCounts = new long[OemPowerConsts.KEY_COUNT];
+    private int mActiveSources = 0;
+
+    TransmitPowerRegister() {
+        invalidateAll();
+    }
+
+    synchronized void set(final int key, final int value) {
+        mValues[Integer.numberOfTrailingZeros(key)] = value;
+        if (value == OemPowerConsts.VALUE_OFF) {
+            mActiveSources &= ~key;
+        } else {
+            mActiveSources |= key;
+        }
+    }
+
+    /**
+     * @return true, and counts the write as dropped, if the modem was
+     *         already told value for key.
+     */
+    synchronized boolean dropIfUnchanged(final int key, final int value) {
+        final int index = Integer.numberOfTrailingZeros(key);
+        if (mValues[index] != value) {
+            return false;
+        }
+
+        mDropCounts[index]++;
+        return true;
+    }
+
+    /**
+     * Records that the modem took accepted instead of the value sent.
+     */
+    synchronized void setMismatch(final int key, final int accepted) {
+        mMismatchCounts[Integer.numberOfTrailingZeros(key)]++;
+        set(key, accepted);
+    }
+
+    synchronized void invalidate(final int key) {
+        mValues[Integer.numberOfTrailingZeros(key)] = OemPowerConsts.INVALID_VALUE;
+    }
+
+    synchronized void invalidateAll() {
+        for (int i = 0; i < mValues.length; i++) {
+            mValues[i] = OemPowerConsts.INVALID_VALUE;
+        }
+    }
+
+    synchronized void dump(final PrintWriter pw) {
+        pw.println("TransmitPowerRegister: active=0x" + Integer.toHexString(mActiveSources));
+        for (int i = 0; i < mValues.length; i++) {
+            pw.println("  " + OemPowerConsts.keyToString(1 << i)
+                       + ": value=0x" + Integer.toHexString(mValues[i])
+                       + " dropped=" + mDropCounts[i]
+                       + " mismatches=" + mMismatchCounts[i]);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.sony.transmitpower.util.FlightRecorder;
+import com.sony.transmitpower.util.LatencyHistogram;
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import java.io.PrintWriter;
+
+/**
+ * Single writer in front of {@see Transmitter}. Values are enqueued from
+ * any thread and written to the modem on a dedicated worker thread, so
+ * callers never block on the RIL.
+ *
+ * At most one value is pending per OEM key: a newer value replaces an
+ * older one which has not been written yet, so a burst of changes of a
+ * key collapses into a single write of its latest value. All keys
+ * pending when the worker wakes up are written in one batch frame.
+ *
+ * A key the modem failed to take is marked dirty and retried with
+ * exponential backoff up to MAX_RETRIES times, with at most one retry
+ * scheduled per key. A successful write of another key writes dirty
+ * keys once more, except those which failed in the same batch, without
+ * resetting their retry budget. {@see reconcile} writes them with a
+ * fresh budget, and {@see resync}, when the radio returns to service,
+ * writes every key.
+ *
+ * A key may be given a release dwell: a change back to
+ * {@see OemPowerConsts.VALUE_OFF} is then held for the dwell time and
+ * dropped if the key backs off again meanwhile, so a flapping sensor
+ * costs no RIL writes. Changes away from VALUE_OFF (backoff) are never
+ * delayed.
+ *
+ * Latencies are kept per key from the observer event to the enqueue
+ * (the hop to the mediator), from the enqueue to the write and from the
+ * event to the modem having taken the value. Times are
+ * {@see SystemClock.elapsedRealtimeNanos}.
+ */
+public final class TransmitQueue {
+    private static final String TAG = TransmitQueue.class.getCanonicalName();
+
+    private static final int MSG_DRAIN = 1;
+    // MSG_RETRY + bit position of the key, so there is one retry per key
+    private static final int MSG_RETRY = 8;
+    // MSG_RELEASE + bit position of the key, so releases can be cancelled per key
+    private static final int MSG_RELEASE = 16;
+    private static final int MAX_RETRIES = 5;
+    private static final long RETRY_BASE_DELAY_MS = 200;
+
+    private final Object mLock = new Object();
+    // all indexed by bit position of the key
+    // latest value enqueued, i.e. what the modem should be told
+    private final int[] mValues = new int[OemPowerConsts.KEY_COUNT];
+    private final int[] mRetries = new int[OemPowerConsts.KEY_COUNT];
+    private final long[] mFailureCounts = new long[OemPowerConsts.KEY_COUNT];
+    private final long[] mRetryCounts = new long[OemPowerConsts.KEY_COUNT];
+    private final long[] mGiveUpCounts = new long[OemPowerConsts.KEY_COUNT];
+    private final long[] mFlapCounts = new long[OemPowerConsts.KEY_COUNT];
+    private final long[] mReleaseDwellsMs = new long[OemPowerConsts.KEY_COUNT];
+    private final long[] mEventTimes = new long[OemPowerConsts.KEY_COUNT];
+    private final long[] mHeldEventTimes = new long[OemPowerConsts.KEY_COUNT];
+    private final long[] mEnqueueTimes = new long[OemPowerConsts.KEY_COUNT];
+    // keys to be written on the next drain
+    private int mPendingKeys = 0;
+    // keys the modem failed to take and which are not rewritten successfully yet
+    private int mDirtyKeys = 0;
+    // keys with a release held for their dwell time
+    private int mHeldKeys = 0;
+    // keys enqueued at least once, i.e. with a value the modem should have
+    private int mKnownKeys = 0;
+    // worker thread only
+    private final int[] mBatchValues = new int[OemPowerConsts.KEY_COUNT];
+    private final long[] mBatchEventTimes = new long[OemPowerConsts.KEY_COUNT];
+    private final long[] mBatchEnqueueTimes = new long[OemPowerConsts.KEY_COUNT];
+
+    private final LatencyHistogram[] mHopLatencies =
+            createHistograms("event to enqueue");
+    private final LatencyHistogram[] mQueueLatencies =
+            createHistograms("enqueue to write");
+    private final LatencyHistogram[] mTotalLatencies =
+            createHistograms("event to modem");
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    private final Handler.Callback mCallback = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_DRAIN:
+                    drain();
+                    return true;
+                default:
+                    if (msg.what >= MSG_RETRY
+                            && msg.what < MSG_RETRY + OemPowerConsts.KEY_COUNT) {
+                        retry(1 << (msg.what - MSG_RETRY));
+                        return true;
+                    }
+                    if (msg.what >= MSG_RELEASE
+                            && msg.what < MSG_RELEASE + OemPowerConsts.KEY_COUNT) {
+                        release(1 << (msg.what - MSG_RELEASE));
+                        return true;
+                    }
+                    return false;
+            }
+        }
+    };
+
+    public TransmitQueue() {
+        // Intentionally empty.
+    }
+
+    /**
+     * Starts the worker thread. Values enqueued before start are dropped.
+     */
+    public void start() {
+        start(null);
+    }
+
+    /**
+     * Starts writing on looper instead of a worker thread of the queue,
+     * e.g. to replay inputs on one thread in virtual time. Values enqueued
+     * before start are dropped.
+     *
+     * @param looper Looper to write on, or null for a worker thread.
+     */
+    public void start(final Looper looper) {
+        synchronized (mLock) {
+            if (mHandler != null) {
+                return;
+            }
+
+            if (looper != null) {
+                mHandler = new Handler(looper, mCallback);
+                return;
+            }
+
+            mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_FOREGROUND);
+            mThread.start();
+            mHandler = new Handler(mThread.getLooper(), mCallback);
+        }
+    }
+
+    /**
+     * Runs task on the worker thread after the writes already pending,
+     * e.g. one-off file IO which mustn't block the main thread. Dropped if
+     * not started.
+     */
+    public void post(final Runnable task) {
+        synchronized (mLock) {
+            if (mHandler == null) {
+                Log.w(TAG, "Not started, dropping task");
+                return;
+            }
+
+            mHandler.post(task);
+        }
+    }
+
+    /**
+     * Sets how long a change of key to VALUE_OFF is held back, 0 to write
+     * it right away.
+     */
+    public void setReleaseDwell(final int key, final long dwellMs) {
+        if (!Transmitter.validate(key, OemPowerConsts.VALUE_OFF)) {
+            return;
+        }
+
+        synchronized (mLock) {
+            mReleaseDwellsMs[Integer.numberOfTrailingZeros(key)] = dwellMs;
+        }
+    }
+
+    /**
+     * Stops the worker thread once the values already pending are written.
+     * Scheduled retries and held releases are dropped. A looper passed to
+     * {@see start} is left running.
+     */
+    public void quit() {
+        synchronized (mLock) {
+            if (mHandler == null) {
+                return;
+            }
+
+            for (int i = 0; i < OemPowerConsts.KEY_COUNT; i++) {
+                mHandler.removeMessages(MSG_RETRY + i);
+                mHandler.removeMessages(MSG_RELEASE + i);
+            }
+            mHeldKeys = 0;
+            if (mThread != null) {
+                mThread.quitSafely();
+                mThread = null;
+            }
+            mHandler = null;
+        }
+    }
+
+    /**
+     * Schedules value of key to be written to the modem, replacing any
+     * value of the same key still pending. Never blocks on the modem.
+     *
+     * @param eventTimeNanos Time of the event which caused the change.
+     */
+    public void enqueue(final int key, final int value, final long eventTimeNanos) {
+        if (!Transmitter.validate(key, value)) {
+            return;
+        }
+
+        final long now = SystemClock.elapsedRealtimeNanos();
+        final int index = Integer.numberOfTrailingZeros(key);
+        mHopLatencies[index].record(now - eventTimeNanos);
+
+        synchronized (mLock) {
+            if (mHandler == null) {
+                Log.w(TAG, "Not started, dropping key: " + key + ", value: " + value);
+                return;
+            }
+
+            if ((mHeldKeys & key) != 0) {
+                if (value == OemPowerConsts.VALUE_OFF) {
+                    // still releasing, keep the dwell of the first release
+                    return;
+                }
+
+                // backed off again within the dwell, the release never happened
+                mHeldKeys &= ~key;
+                mHandler.removeMessages(MSG_RELEASE + index);
+                mFlapCounts[index]++;
+                FlightRecorder.record(FlightRecorder.SOURCE_FLAP, key, value);
+            } else if (value == OemPowerConsts.VALUE_OFF
+                    && mValues[index] != OemPowerConsts.VALUE_OFF
+                    && mReleaseDwellsMs[index] > 0) {
+                mHeldKeys |= key;
+                mHeldEventTimes[index] = eventTimeNanos;
+                FlightRecorder.record(FlightRecorder.SOURCE_HOLD, key, value);
+                mHandler.sendEmptyMessageDelayed(MSG_RELEASE + index, mReleaseDwellsMs[index]);
+                return;
+            }
+
+            mValues[index] = value;
+            mEventTimes[index] = eventTimeNanos;
+            mEnqueueTimes[index] = now;
+            mRetries[index] = 0;
+            mKnownKeys |= key;
+            setPendingLocked(key);
+        }
+    }
+
+    /**
+     * Writes dirty keys again, e.g. when the modem is expected to take
+     * them now. Resets their retry budget.
+     */
+    public void reconcile() {
+        synchronized (mLock) {
+            reconcileLocked(0, true);
+        }
+    }
+
+    /**
+     * Forgets what the modem was told and writes the latest value of every
+     * key again, e.g. when the radio is back in service after a restart
+     * which may have reset the modem. Dirty keys get a fresh retry budget.
+     */
+    public void resync() {
+        // not under mLock: invalidate waits for a write in progress, which
+        // may be a slow RIL call, and enqueue shouldn't wait for it too
+        Transmitter.invalidate();
+        synchronized (mLock) {
+            mDirtyKeys |= mKnownKeys;
+            reconcileLocked(0, true);
+        }
+    }
+
+    public void dump(final PrintWriter pw) {
+        synchronized (mLock) {
+            pw.println("TransmitQueue: pending=0x" + Integer.toHexString(mPendingKeys)
+                       + " dirty=0x" + Integer.toHexString(mDirtyKeys)
+                       + " held=0x" + Integer.toHexString(mHeldKeys));
+            for (int i = 0; i < OemPowerConsts.KEY_COUNT; i++) {
+                pw.println("  " + OemPowerConsts.keyToString(1 << i)
+                           + ": failures=" + mFailureCounts[i]
+                           + " retries=" + mRetryCounts[i]
+                           + " giveups=" + mGiveUpCounts[i]
+                           + " dwell=" + mReleaseDwellsMs[i] + "ms"
+                           + " flaps=" + mFlapCounts[i]);
+                mHopLatencies[i].dump(pw, "    ");
+                mQueueLatencies[i].dump(pw, "    ");
+                mTotalLatencies[i].dump(pw, "    ");
+            }
+        }
+    }
+
+    private static LatencyHistogram[] createHistograms(final String name) {
+        final LatencyHistogram[] histograms = new LatencyHistogram[OemPowerConsts.KEY_COUNT];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram(name);
+        }
+        return histograms;
+    }
+
+    private void setPendingLocked(final int keys) {
+        if (mHandler == null) {
+            return;
+        }
+
+        if (mPendingKeys == 0) {
+            mHandler.sendEmptyMessage(MSG_DRAIN);
+        }
+        mPendingKeys |= keys;
+    }
+
+    /**
+     * Writes dirty keys but skipKeys now, instead of on their retry.
+     *
+     * @param resetBudget Give the keys MAX_RETRIES retries again.
+     */
+    private void reconcileLocked(final int skipKeys, final boolean resetBudget) {
+        final int keys = mDirtyKeys & ~skipKeys;
+        if (keys == 0) {
+            return;
+        }
+
+        // the reconciliation is the cause of these writes, not the original events
+        final long now = SystemClock.elapsedRealtimeNanos();
+        for (int remaining = keys; remaining != 0; remaining &= remaining - 1) {
+            final int index = Integer.numberOfTrailingZeros(remaining);
+            if (resetBudget) {
+                mRetries[index] = 0;
+            }
+            if (mHandler != null) {
+                mHandler.removeMessages(MSG_RETRY + index);
+            }
+            mEventTimes[index] = now;
+            mEnqueueTimes[index] = now;
+        }
+        setPendingLocked(keys);
+    }
+
+    // worker thread only
+    private void drain() {
+        while (true) {
+            final int keys;
+            synchronized (mLock) {
+                if (mPendingKeys == 0) {
+                    return;
+                }
+
+                keys = mPendingKeys;
+                mPendingKeys = 0;
+                System.arraycopy(mValues, 0, mBatchValues, 0, mBatchValues.length);
+                System.arraycopy(mEventTimes, 0, mBatchEventTimes, 0, mBatchEventTimes.length);
+                System.arraycopy(mEnqueueTimes, 0, mBatchEnqueueTimes, 0,
+                                 mBatchEnqueueTimes.length);
+            }
+
+            final long writeTime = SystemClock.elapsedRealtimeNanos();
+            final int failedKeys = Transmitter.transmitPower(keys, mBatchValues);
+            final long doneTime = SystemClock.elapsedRealtimeNanos();
+            for (int remaining = keys & ~failedKeys; remaining != 0;
+                    remaining &= remaining - 1) {
+                final int index = Integer.numberOfTrailingZeros(remaining);
+                mQueueLatencies[index].record(writeTime - mBatchEnqueueTimes[index]);
+                mTotalLatencies[index].record(doneTime - mBatchEventTimes[index]);
+            }
+
+            synchronized (mLock) {
+                final int writtenKeys = keys & ~failedKeys;
+                mDirtyKeys &= ~writtenKeys;
+                for (int remaining = failedKeys; remaining != 0; remaining &= remaining - 1) {
+                    onFailureLocked(Integer.lowestOneBit(remaining));
+                }
+
+                // the modem takes writes again; keys which just failed wait for their retry
+                if (writtenKeys != 0) {
+                    reconcileLocked(failedKeys, false);
+                }
+            }
+        }
+    }
+
+    private void onFailureLocked(final int key) {
+        final int index = Integer.numberOfTrailingZeros(key);
+        mDirtyKeys |= key;
+        mFailureCounts[index]++;
+
+        if (mRetries[index] >= MAX_RETRIES) {
+            mGiveUpCounts[index]++;
+            FlightRecorder.record(FlightRecorder.SOURCE_GIVE_UP, key, mValues[index]);
+            Log.w(TAG, "Giving up on " + OemPowerConsts.keyToString(key)
+                  + " until reconciled");
+            return;
+        }
+
+        final long delayMs = RETRY_BASE_DELAY_MS << mRetries[index];
+        mRetries[index]++;
+        if (mHandler != null) {
+            mHandler.removeMessages(MSG_RETRY + index);
+            mHandler.sendEmptyMessageDelayed(MSG_RETRY + index, delayMs);
+        }
+    }
+
+    // worker thread only
+    private void release(final int key) {
+        synchronized (mLock) {
+            if ((mHeldKeys & key) == 0) {
+                return;
+            }
+
+            final int index = Integer.numberOfTrailingZeros(key);
+            mHeldKeys &= ~key;
+            mValues[index] = OemPowerConsts.VALUE_OFF;
+            mEventTimes[index] = mHeldEventTimes[index];
+            mEnqueueTimes[index] = SystemClock.elapsedRealtimeNanos();
+            mRetries[index] = 0;
+            setPendingLocked(key);
+        }
+    }
+
+    // worker thread only
+    private void retry(final int key) {
+        synchronized (mLock) {
+            if ((mDirtyKeys & key) == 0) {
+                // written or reconciled meanwhile
+                return;
+            }
+
+            mRetryCounts[Integer.numberOfTrailingZeros(key)]++;
+            setPendingLocked(key);
+        }
+    }
+}
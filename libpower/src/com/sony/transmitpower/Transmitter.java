@@ -4,59 +4,264 @@
  */
 package com.sony.transmitpower;
 
+import android.os.SystemProperties;
 import android.util.Log;
 
-import android.telephony.TelephonyManager;
-
+import com.sony.transmitpower.transport.OemHookTransport;
+import com.sony.transmitpower.transport.TransmitTransport;
+import com.sony.transmitpower.transport.VendorHookTransport;
+import com.sony.transmitpower.util.FlightRecorder;
 import com.sony.transmitpower.util.OemPowerConsts;
+import com.sony.transmitpower.util.StartupTiming;
 
-import java.io.UnsupportedEncodingException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.PrintWriter;
 
 public final class Transmitter {
     private static final boolean DEBUG = false;
     private static final String TAG = Transmitter.class.getCanonicalName();
 
-    public static void transmitPower(final int key, final int value) {
-        if (DEBUG) Log.d(TAG, "setting key: " + key + ", value: " + value);
+    // selects the default transport: "oemhook" (default) or "vendor"
+    private static final String PROPERTY_TRANSPORT = "ro.vendor.transpower.transport";
+    private static final String TRANSPORT_VENDOR = "vendor";
+    // the modem implements SET_TRANSMIT_POWER_BATCH; off unless the vendor says so
+    private static final String PROPERTY_BATCH = "ro.vendor.transpower.batch";
+    private static final int PAIR_SIZE = 2 * OemPowerConsts.INT_SIZE;
+    private static final int PAYLOAD_SIZE_OFFSET =
+            OemPowerConsts.HEADER_SIZE - OemPowerConsts.INT_SIZE;
+    private static final int REQUEST_ID_OFFSET = PAYLOAD_SIZE_OFFSET - OemPowerConsts.INT_SIZE;
+
+    // guards the shared frame buffers and writes; callers may come from any thread
+    private static final Object sLock = new Object();
+    private static final OemHookFrameEncoder sEncoder = new OemHookFrameEncoder();
+    private static final TransmitPowerRegister sRegister = new TransmitPowerRegister();
+    private static TransmitTransport sTransport;
+    private static boolean sBatchSupported = SystemProperties.getBoolean(PROPERTY_BATCH, false);
+    // single key write values, indexed by bit position of the key
+    private static final int[] sValues = new int[OemPowerConsts.KEY_COUNT];
 
+    /**
+     * Writes value of key unless the modem was already told that value.
+     *
+     * @return false if the modem failed to take the value.
+     */
+    public static boolean transmitPower(final int key, final int value) {
         if (!validate(key, value)) {
-            return;
+            return true;
+        }
+
+        synchronized (sLock) {
+            if (sRegister.dropIfUnchanged(key, value)) {
+                if (DEBUG) Log.d(TAG, "dropping unchanged key: " + key);
+                return true;
+            }
+
+            return transmitPowerLocked(key, value);
+        }
+    }
+
+    /**
+     * Writes several keys at once using a single SET_TRANSMIT_POWER_BATCH
+     * frame if ro.vendor.transpower.batch is set, else one
+     * SET_TRANSMIT_POWER frame per key. A failed batch is sent again key
+     * by key. Batching is turned off for good only if the modem answers
+     * REQUEST_NOT_SUPPORTED or GENERIC_FAILURE, as a modem need not tell
+     * an unknown request from a failing one; other errors, e.g. the radio
+     * being off, fall back for this call only. Keys whose value the modem
+     * was already told are dropped.
+     *
+     * @param keys   Bitmask of OEM keys to write.
+     * @param values Values indexed by bit position of their key.
+     * @return Bitmask of keys the modem failed to take, 0 on success.
+     *         Invalid keys are dropped and not reported as failed.
+     */
+    public static int transmitPower(int keys, final int[] values) {
+        for (int remaining = keys; remaining != 0; remaining &= remaining - 1) {
+            final int key = Integer.lowestOneBit(remaining);
+            if (!validate(key, values[Integer.numberOfTrailingZeros(key)])) {
+                keys &= ~key;
+            }
+        }
+
+        synchronized (sLock) {
+            for (int remaining = keys; remaining != 0; remaining &= remaining - 1) {
+                final int key = Integer.lowestOneBit(remaining);
+                if (sRegister.dropIfUnchanged(key, values[Integer.numberOfTrailingZeros(key)])) {
+                    keys &= ~key;
+                }
+            }
+
+            if (keys == 0) {
+                return 0;
+            }
+
+            if (Integer.bitCount(keys) > 1 && sBatchSupported) {
+                if (DEBUG) Log.d(TAG, "setting keys: " + keys);
+
+                final int ret = sendLocked(sEncoder.encodeBatch(keys, values));
+                if (ret >= 0) {
+                    return checkResponseLocked(
+                            OemPowerConsts.OEMHOOK_EVT_HOOK_SET_TRANSMIT_POWER_BATCH,
+                            keys, values, ret);
+                }
+
+                if (ret == -TransmitTransport.REQUEST_NOT_SUPPORTED
+                        || ret == -TransmitTransport.GENERIC_FAILURE) {
+                    Log.w(TAG, "SET_TRANSMIT_POWER_BATCH failed with rc = " + ret
+                          + ", sending keys one by one from now on");
+                    sBatchSupported = false;
+                } else {
+                    Log.w(TAG, "SET_TRANSMIT_POWER_BATCH failed with rc = " + ret
+                          + ", sending keys one by one");
+                }
+            }
+
+            int failedKeys = 0;
+            for (int remaining = keys; remaining != 0; remaining &= remaining - 1) {
+                final int key = Integer.lowestOneBit(remaining);
+                if (!transmitPowerLocked(key, values[Integer.numberOfTrailingZeros(key)])) {
+                    failedKeys |= key;
+                }
+            }
+            return failedKeys;
+        }
+    }
+
+    /**
+     * Forgets what the modem was told, e.g. after a radio restart which
+     * may have reset it, so that the next write of every key goes
+     * through. Waits for a write in progress, so it can't restore what
+     * is forgotten. Observers don't send a value again which they sent
+     * before, so only {@see TransmitQueue.resync}, which rewrites every
+     * key, calls this.
+     */
+    static void invalidate() {
+        synchronized (sLock) {
+            sRegister.invalidateAll();
+            FlightRecorder.record(FlightRecorder.SOURCE_INVALIDATE, OemPowerConsts.INVALID_KEY,
+                                  OemPowerConsts.INVALID_VALUE);
+        }
+    }
+
+    /**
+     * Replaces the transport frames are sent with, e.g. by a
+     * {@see LoopbackTransport} to exercise the pipeline without a modem.
+     * The modem behind it has not been told anything yet.
+     */
+    public static void setTransport(final TransmitTransport transport)
+            throws IllegalArgumentException {
+        if (transport == null) {
+            throw new IllegalArgumentException("null transport supplied");
+        }
+
+        synchronized (sLock) {
+            sTransport = transport;
+            sRegister.invalidateAll();
+        }
+    }
+
+    public static void dump(final PrintWriter pw) {
+        sRegister.dump(pw);
+    }
+
+    private static boolean transmitPowerLocked(final int key, final int value) {
+        if (DEBUG) Log.d(TAG, "setting key: " + key + ", value: " + value);
+
+        final int ret = sendLocked(sEncoder.encode(key, value));
+        if (ret < 0) {
+            Log.e(TAG, "SET_TRANSMIT_POWER failed with rc = " + ret);
+            FlightRecorder.record(FlightRecorder.SOURCE_WRITE_FAIL, key, value);
+            invalidateLocked(key);
+            return false;
         }
 
-        final TelephonyManager telephonyManager = TelephonyManager.getDefault();
-        if (telephonyManager == null)
-            throw new IllegalStateException("No default telephonyManager");
-
-        ByteBuffer buf = ByteBuffer.allocate(OemPowerConsts.HEADER_SIZE
-                                             + OemPowerConsts.INT_SIZE
-                                             + OemPowerConsts.INT_SIZE);
-        buf.order(ByteOrder.nativeOrder());
-
-        try {
-            buf.put(OemPowerConsts.OEM_IDENTIFIER
-                    .getBytes(OemPowerConsts.ENCODING_USASCII));
-        } catch (UnsupportedEncodingException e) {
-            Log.e(TAG, "Encoding not supported: " + e);
-            return;
+        sValues[Integer.numberOfTrailingZeros(key)] = value;
+        return checkResponseLocked(OemPowerConsts.OEMHOOK_EVT_HOOK_SET_TRANSMIT_POWER,
+                                   key, sValues, ret) == 0;
+    }
+
+    /**
+     * Updates the register from the modem's response to a successful
+     * request. A modem may echo the key/value pairs it took in a frame
+     * with the header of the request: OEM identifier, request ID and the
+     * size of the pairs following. Any other response is not parsed, and
+     * keys an echo doesn't mention are taken as sent.
+     *
+     * @return Bitmask of keys the modem took another value for.
+     */
+    private static int checkResponseLocked(final int requestId, final int keys,
+                                           final int[] values, final int size) {
+        int echoedKeys = 0;
+        int failedKeys = 0;
+        final int end = isEcho(requestId, size)
+                ? OemPowerConsts.HEADER_SIZE + sEncoder.responseInt(PAYLOAD_SIZE_OFFSET)
+                : 0;
+        for (int offset = OemPowerConsts.HEADER_SIZE; offset + PAIR_SIZE <= end;
+                offset += PAIR_SIZE) {
+            final int key = sEncoder.responseInt(offset);
+            if ((keys & key) == 0 || Integer.bitCount(key) != 1) {
+                continue;
+            }
+
+            final int accepted = sEncoder.responseInt(offset + OemPowerConsts.INT_SIZE);
+            echoedKeys |= key;
+            if (accepted == values[Integer.numberOfTrailingZeros(key)]) {
+                sRegister.set(key, accepted);
+                FlightRecorder.record(FlightRecorder.SOURCE_WRITE, key, accepted);
+                StartupTiming.onWrite();
+            } else {
+                Log.w(TAG, "Modem took " + accepted + " for key: " + key);
+                sRegister.setMismatch(key, accepted);
+                FlightRecorder.record(FlightRecorder.SOURCE_MISMATCH, key, accepted);
+                failedKeys |= key;
+            }
+        }
+
+        for (int remaining = keys & ~echoedKeys; remaining != 0; remaining &= remaining - 1) {
+            final int key = Integer.lowestOneBit(remaining);
+            sRegister.set(key, values[Integer.numberOfTrailingZeros(key)]);
+            FlightRecorder.record(FlightRecorder.SOURCE_WRITE, key,
+                                  values[Integer.numberOfTrailingZeros(key)]);
+            StartupTiming.onWrite();
+        }
+        return failedKeys;
+    }
+
+    private static boolean isEcho(final int requestId, final int size) {
+        if (size < OemPowerConsts.HEADER_SIZE
+                || !sEncoder.responseStartsWithOemIdentifier()
+                || sEncoder.responseInt(REQUEST_ID_OFFSET) != requestId) {
+            return false;
+        }
+
+        final int payloadSize = sEncoder.responseInt(PAYLOAD_SIZE_OFFSET);
+        return payloadSize >= 0
+                && payloadSize % PAIR_SIZE == 0
+                && payloadSize <= size - OemPowerConsts.HEADER_SIZE;
+    }
+
+    private static void invalidateLocked(final int keys) {
+        for (int remaining = keys; remaining != 0; remaining &= remaining - 1) {
+            sRegister.invalidate(Integer.lowestOneBit(remaining));
+        }
+    }
+
+    private static int sendLocked(final byte[] request) {
+        if (sTransport == null) {
+            if (TRANSPORT_VENDOR.equals(SystemProperties.get(PROPERTY_TRANSPORT, ""))) {
+                sTransport = VendorHookTransport.create();
+                if (sTransport == null) {
+                    Log.w(TAG, "vendor transport not built in, using OEMHOOK");
+                }
+            }
+            if (sTransport == null) {
+                sTransport = new OemHookTransport();
+            }
         }
 
-        // Add Request ID
-        buf.putInt(OemPowerConsts.OEMHOOK_EVT_HOOK_SET_TRANSMIT_POWER);
-        // Add Request payload
-        buf.putInt(OemPowerConsts.INT_SIZE);
-        buf.putInt(key);
-        buf.putInt(value);
-
-        // tm calls this through on the ITelephony service
-        byte[] resp = new byte[1024];
-        int ret = telephonyManager.invokeOemRilRequestRaw(buf.array(), resp);
-        if (ret < 0)
-            Log.e(TAG, "invokeOemRilRequestRaw SET_TRANSMIT_POWER failed with rc = " + ret);
+        return sTransport.send(request, sEncoder.response());
     }
 
-    private static boolean validate(final int key, final int value) {
+    static boolean validate(final int key, final int value) {
         switch(key) {
             case OemPowerConsts.BATTERY_EXT:
             case OemPowerConsts.VOICECALL_EXT:
@@ -21,6 +21,16 @@ public final class SensorState {
     public static final int DETECTING = 0;
     public static final int DETECTED = 1;
 
+    // indexed by (power ? 3 : 0) + state - NOT_DETECTED
+    private static final SensorState[] INTERNED = {
+        new SensorState(POWER_OFF, NOT_DETECTED),
+        new SensorState(POWER_OFF, DETECTING),
+        new SensorState(POWER_OFF, DETECTED),
+        new SensorState(POWER_ON, NOT_DETECTED),
+        new SensorState(POWER_ON, DETECTING),
+        new SensorState(POWER_ON, DETECTED),
+    };
+
     private final boolean mPower;
     private final int mState;
 
@@ -40,18 +50,32 @@ public final class SensorState {
                                              boolean isDataActive,
                                              boolean isScreenOn) {
         if (isCallActive) {
-            return new SensorState(POWER_ON, DETECTING);
+            return of(POWER_ON, DETECTING);
         }
 
         if (isDataActive) {
             if (isScreenOn) {
-                return new SensorState(POWER_ON, DETECTING);
+                return of(POWER_ON, DETECTING);
             }
 
-            return new SensorState(POWER_OFF, DETECTED);
+            return of(POWER_OFF, DETECTED);
+        }
+
+        return of(POWER_OFF, NOT_DETECTED);
+    }
+
+    /**
+     * @param isPowerOn   POWER_ON or POWER_OFF.
+     * @param sensorState NOT_DETECTED, DETECTING or DETECTED.
+     * @return The interned instance of the combination.
+     */
+    public static SensorState of(boolean isPowerOn, int sensorState)
+            throws IllegalArgumentException {
+        if (sensorState < NOT_DETECTED || sensorState > DETECTED) {
+            throw new IllegalArgumentException("Invalid sensor state: " + sensorState);
         }
 
-        return new SensorState(POWER_OFF, NOT_DETECTED);
+        return INTERNED[(isPowerOn ? 3 : 0) + sensorState - NOT_DETECTED];
     }
 
     public boolean isPowerOn() {
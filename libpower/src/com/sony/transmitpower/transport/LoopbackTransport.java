@@ -0,0 +1,119 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.transport;
+
+import java.util.Random;
+
+/**
+ * In-memory transport standing in for the modem, e.g. to measure
+ * throughput and latency of the transmit pipeline without a radio.
+ * Records the last frames sent into a fixed ring and simulates a
+ * configurable modem latency and failure rate. Uses plain Java only,
+ * so it also runs on a host JVM.
+ */
+public final class LoopbackTransport implements TransmitTransport {
+    private final byte[][] mFrames;
+    private final int[] mFrameSizes;
+    private final long mLatencyNanos;
+    private final float mFailureRate;
+    private final Random mRandom;
+    private long mSentCount = 0;
+    private long mFailedCount = 0;
+
+    /**
+     * @param capacity     Number of most recent frames kept.
+     * @param latencyNanos Simulated time the modem takes per request.
+     * @param failureRate  Probability [0, 1] of a request failing with
+     *                     {@see TransmitTransport.GENERIC_FAILURE}.
+     * @param seed         Seed of failure injection, for reproducible runs.
+     */
+    public LoopbackTransport(final int capacity,
+                             final long latencyNanos,
+                             final float failureRate,
+                             final long seed)
+            throws IllegalArgumentException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        if (failureRate < 0.0f || failureRate > 1.0f) {
+            throw new IllegalArgumentException("failureRate out of [0, 1]");
+        }
+
+        mFrames = new byte[capacity][];
+        mFrameSizes = new int[capacity];
+        mLatencyNanos = latencyNanos;
+        mFailureRate = failureRate;
+        mRandom = new Random(seed);
+    }
+
+    @Override
+    public synchronized int send(final byte[] request, final byte[] response) {
+        final int slot = (int) (mSentCount % mFrames.length);
+        if (mFrames[slot] == null || mFrames[slot].length < request.length) {
+            mFrames[slot] = new byte[request.length];
+        }
+        System.arraycopy(request, 0, mFrames[slot], 0, request.length);
+        mFrameSizes[slot] = request.length;
+        mSentCount++;
+
+        simulateLatency();
+
+        if (mFailureRate > 0.0f && mRandom.nextFloat() < mFailureRate) {
+            mFailedCount++;
+            return -GENERIC_FAILURE;
+        }
+
+        return 0;
+    }
+
+    public synchronized long getSentCount() {
+        return mSentCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * Copies a recorded frame.
+     *
+     * @param age 0 for the last frame sent, 1 for the one before etc.
+     * @param dst Buffer to copy the frame into.
+     * @return Size of the frame, or -1 if it is no longer recorded.
+     */
+    public synchronized int copyFrame(final int age, final byte[] dst) {
+        if (age < 0 || age >= mFrames.length || age >= mSentCount) {
+            return -1;
+        }
+
+        final int slot = (int) ((mSentCount - 1 - age) % mFrames.length);
+        final int size = Math.min(mFrameSizes[slot], dst.length);
+        System.arraycopy(mFrames[slot], 0, dst, 0, size);
+        return mFrameSizes[slot];
+    }
+
+    private void simulateLatency() {
+        if (mLatencyNanos <= 0) {
+            return;
+        }
+
+        // sleep for the bulk, spin for the rest to keep short latencies accurate
+        final long deadline = System.nanoTime() + mLatencyNanos;
+        final long sleepMs = mLatencyNanos / 1000000L - 1;
+        if (sleepMs > 0) {
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        while (System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.transport;
+
+import android.telephony.TelephonyManager;
+
+/**
+ * Transport over the OEMHOOK API, i.e.
+ * {@see TelephonyManager.invokeOemRilRequestRaw}.
+ *   NOTE: OEMHOOK API is deprecated in O in favor of
+ *         vendor extensions ({@see VendorHookTransport}).
+ */
+public final class OemHookTransport implements TransmitTransport {
+    private TelephonyManager mTelephonyManager;
+
+    public OemHookTransport() {
+        // Intentionally empty.
+    }
+
+    @Override
+    public int send(final byte[] request, final byte[] response) {
+        if (mTelephonyManager == null) {
+            mTelephonyManager = TelephonyManager.getDefault();
+            if (mTelephonyManager == null)
+                throw new IllegalStateException("No default telephonyManager");
+        }
+
+        // tm calls this through on the ITelephony service
+        return mTelephonyManager.invokeOemRilRequestRaw(request, response);
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.transport;
+
+/**
+ * Carries encoded OEMHOOK frames to the modem. Implementations are only
+ * ever called by one thread at a time (see {@see Transmitter}) and are
+ * expected to block until the modem has handled the request.
+ */
+public interface TransmitTransport {
+    // RIL errors, negated as returned by send
+    int GENERIC_FAILURE = 2;
+    int REQUEST_NOT_SUPPORTED = 6;
+
+    /**
+     * Sends one frame to the modem.
+     *
+     * @param request  Encoded frame, the whole array is sent.
+     * @param response Buffer for the modem's response, if any.
+     * @return Number of bytes written to response, or a negative RIL
+     *         error code on failure.
+     */
+    int send(byte[] request, byte[] response);
+}
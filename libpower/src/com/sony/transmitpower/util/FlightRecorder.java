@@ -0,0 +1,216 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed size binary ring of the last RECORD_COUNT observer inputs and
+ * transmit decisions, so there is a history to look at in dumpsys even
+ * with debug logs compiled out and logcat rotated.
+ *
+ * A record is a time ({@see SystemClock.elapsedRealtimeNanos}), a
+ * SOURCE_* constant, a key and a value, written with absolute puts into
+ * a buffer, so recording doesn't allocate. The buffer lives on the heap
+ * until {@see spill} maps it to a file instead; the page cache then
+ * keeps the records of a crashed process, and they are dumped as the
+ * previous session the next time the file is mapped.
+ */
+public final class FlightRecorder {
+    private static final String TAG = FlightRecorder.class.getCanonicalName();
+
+    // inputs; key is OemPowerConsts.INVALID_KEY unless noted, value is 1 or 0
+    public static final int SOURCE_CALL        = 1;
+    public static final int SOURCE_EARPIECE    = 2;
+    public static final int SOURCE_DATA        = 3;
+    public static final int SOURCE_SCREEN      = 4;
+    // key is the subscription id, value the ServiceState state
+    public static final int SOURCE_SERVICE     = 5;
+    // decisions; key is the OEM key, value its value
+    public static final int SOURCE_ENQUEUE     = 16;
+    public static final int SOURCE_HOLD        = 17;
+    public static final int SOURCE_FLAP        = 18;
+    public static final int SOURCE_GIVE_UP     = 19;
+    public static final int SOURCE_WRITE       = 20;
+    public static final int SOURCE_WRITE_FAIL  = 21;
+    // value is the value the modem took instead
+    public static final int SOURCE_MISMATCH    = 22;
+    public static final int SOURCE_INVALIDATE  = 23;
+
+    private static final int RECORD_COUNT = 1024;
+    private static final int MAGIC = 0x54504652; // "TPFR"
+    // header: magic, record count, next sequence number, wall clock offset
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_COUNT = 4;
+    private static final int OFFSET_SEQUENCE = 8;
+    private static final int OFFSET_WALL_OFFSET = 16;
+    private static final int HEADER_SIZE = 24;
+    // record: time, source, key, value, padding
+    private static final int RECORD_SIZE = 24;
+    private static final int BUFFER_SIZE = HEADER_SIZE + RECORD_COUNT * RECORD_SIZE;
+
+    private static final Object sLock = new Object();
+    private static ByteBuffer sBuffer = createBuffer(ByteBuffer.allocate(BUFFER_SIZE));
+    private static long sSequence = 0;
+    // records of the process which mapped the spill file before, or null
+    private static ByteBuffer sPrevious = null;
+
+    public static void record(final int source, final int key, final int value) {
+        final long now = SystemClock.elapsedRealtimeNanos();
+        synchronized (sLock) {
+            final int offset = HEADER_SIZE + (int) (sSequence % RECORD_COUNT) * RECORD_SIZE;
+            sBuffer.putLong(offset, now);
+            sBuffer.putInt(offset + 8, source);
+            sBuffer.putInt(offset + 12, key);
+            sBuffer.putInt(offset + 16, value);
+            sBuffer.putLong(OFFSET_SEQUENCE, ++sSequence);
+        }
+    }
+
+    /**
+     * Moves the ring into file, keeping what is recorded so far. Records
+     * found in file are kept aside and dumped as the previous session.
+     * On failure the ring stays on the heap.
+     */
+    public static void spill(final File file) throws IllegalArgumentException {
+        if (file == null) {
+            throw new IllegalArgumentException("null file supplied");
+        }
+
+        final ByteBuffer mapped;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(BUFFER_SIZE);
+            // the mapping stays valid after the channel is closed
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, BUFFER_SIZE);
+        } catch (IOException e) {
+            Log.w(TAG, "Can't map " + file + ", keeping records in memory: " + e);
+            return;
+        }
+        mapped.order(ByteOrder.nativeOrder());
+
+        synchronized (sLock) {
+            if (sBuffer instanceof MappedByteBuffer) {
+                Log.w(TAG, "Already spilling, ignoring " + file);
+                return;
+            }
+
+            if (mapped.getInt(OFFSET_MAGIC) == MAGIC
+                    && mapped.getInt(OFFSET_COUNT) == RECORD_COUNT) {
+                sPrevious = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+                sPrevious.put(mapped.duplicate());
+            }
+
+            final ByteBuffer src = sBuffer.duplicate();
+            src.clear();
+            final ByteBuffer dst = mapped.duplicate();
+            dst.clear();
+            dst.put(src);
+            sBuffer = mapped;
+        }
+    }
+
+    public static void dump(final PrintWriter pw) {
+        synchronized (sLock) {
+            if (sPrevious != null) {
+                dump(pw, "FlightRecorder (previous session):", sPrevious);
+            }
+            dump(pw, "FlightRecorder:", sBuffer);
+        }
+    }
+
+    /**
+     * Prints the records of the current session as a trace, one record
+     * per line: elapsed realtime in ns, source, key and value, comma
+     * separated, as input for offline analysis or replay.
+     */
+    public static void dumpTrace(final PrintWriter pw) {
+        synchronized (sLock) {
+            final long sequence = sBuffer.getLong(OFFSET_SEQUENCE);
+            pw.println("# elapsed_realtime_ns,source,key,value");
+            for (long i = Math.max(0, sequence - RECORD_COUNT); i < sequence; i++) {
+                final int offset = HEADER_SIZE + (int) (i % RECORD_COUNT) * RECORD_SIZE;
+                pw.println(sBuffer.getLong(offset)
+                           + "," + sourceToString(sBuffer.getInt(offset + 8))
+                           + "," + sBuffer.getInt(offset + 12)
+                           + "," + sBuffer.getInt(offset + 16));
+            }
+        }
+    }
+
+    private static void dump(final PrintWriter pw, final String title, final ByteBuffer buffer) {
+        final long sequence = buffer.getLong(OFFSET_SEQUENCE);
+        final long wallOffsetMs = buffer.getLong(OFFSET_WALL_OFFSET);
+        final long first = Math.max(0, sequence - RECORD_COUNT);
+        pw.println(title + " " + (sequence - first) + " of " + sequence + " records");
+        for (long i = first; i < sequence; i++) {
+            final int offset = HEADER_SIZE + (int) (i % RECORD_COUNT) * RECORD_SIZE;
+            final long wallTimeMs = wallOffsetMs + buffer.getLong(offset) / 1000000;
+            final int source = buffer.getInt(offset + 8);
+            final int key = buffer.getInt(offset + 12);
+            pw.println(String.format("  %tm-%<td %<tH:%<tM:%<tS.%<tL ", wallTimeMs)
+                       + sourceToString(source)
+                       + (source == SOURCE_SERVICE ? " subId=" + key : "")
+                       + (source >= SOURCE_ENQUEUE ? " " + OemPowerConsts.keyToString(key) : "")
+                       + " value=" + buffer.getInt(offset + 16));
+        }
+    }
+
+    private static String sourceToString(final int source) {
+        switch (source) {
+            case SOURCE_CALL:
+                return "CALL";
+            case SOURCE_EARPIECE:
+                return "EARPIECE";
+            case SOURCE_DATA:
+                return "DATA";
+            case SOURCE_SCREEN:
+                return "SCREEN";
+            case SOURCE_SERVICE:
+                return "SERVICE";
+            case SOURCE_ENQUEUE:
+                return "ENQUEUE";
+            case SOURCE_HOLD:
+                return "HOLD";
+            case SOURCE_FLAP:
+                return "FLAP";
+            case SOURCE_GIVE_UP:
+                return "GIVE_UP";
+            case SOURCE_WRITE:
+                return "WRITE";
+            case SOURCE_WRITE_FAIL:
+                return "WRITE_FAIL";
+            case SOURCE_MISMATCH:
+                return "MISMATCH";
+            case SOURCE_INVALIDATE:
+                return "INVALIDATE";
+            default:
+                return "UNKNOWN(" + source + ")";
+        }
+    }
+
+    private static ByteBuffer createBuffer(final ByteBuffer buffer) {
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(OFFSET_MAGIC, MAGIC);
+        buffer.putInt(OFFSET_COUNT, RECORD_COUNT);
+        buffer.putLong(OFFSET_SEQUENCE, 0);
+        buffer.putLong(OFFSET_WALL_OFFSET,
+                       System.currentTimeMillis() - SystemClock.elapsedRealtime());
+        return buffer;
+    }
+
+    private FlightRecorder() {
+        // intentionally empty
+    }
+}
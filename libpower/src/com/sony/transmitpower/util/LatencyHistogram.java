@@ -0,0 +1,87 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.util;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory, lock-free latency histogram. Bucket i counts latencies
+ * in [2^i, 2^(i+1)) microseconds (bucket 0 also takes everything below
+ * 1us), so percentiles are reported as the upper bound of their bucket,
+ * i.e. within a factor of two. Recording does not allocate.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKET_COUNT = 32;
+
+    private final String mName;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+
+    public LatencyHistogram(final String name) {
+        mName = name;
+    }
+
+    public void record(final long nanos) {
+        final long micros = nanos / 1000;
+        final int bucket = micros <= 1
+                ? 0
+                : Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMeanNanos() {
+        final long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * @param percentile In (0, 100].
+     * @return Upper bound in microseconds of the bucket holding the
+     *         percentile, 0 if nothing is recorded.
+     */
+    public long getPercentileMicros(final double percentile) {
+        final long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return 1L << (i + 1);
+            }
+        }
+        return 1L << BUCKET_COUNT;
+    }
+
+    public void dump(final PrintWriter pw, final String prefix) {
+        pw.println(prefix + mName + ": count=" + getCount()
+                   + " mean=" + getMeanNanos() / 1000 + "us"
+                   + " p50<=" + getPercentileMicros(50) + "us"
+                   + " p99<=" + getPercentileMicros(99) + "us"
+                   + " max=" + getMaxNanos() / 1000 + "us");
+    }
+}
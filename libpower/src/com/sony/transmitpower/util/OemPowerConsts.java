@@ -20,12 +20,36 @@ public final class OemPowerConsts {
     public static final int PSENSOR_EXT   = 0x00000004;
     public static final int WIFI_EXT      = 0x00000008;
     public static final int ACCSENSOR_EXT = 0x00000010;
+    // keys are single bits, KEY_COUNT is the number of them
+    public static final int KEY_COUNT     = 5;
 
     // OEMHOOK protocol constants
     public static final int OEMHOOK_BASE = 0x80000;
     public static final int OEMHOOK_EVT_HOOK_SET_TRANSMIT_POWER = OEMHOOK_BASE + 201;
+    // payload: count followed by count key/value pairs, one per key
+    public static final int OEMHOOK_EVT_HOOK_SET_TRANSMIT_POWER_BATCH = OEMHOOK_BASE + 202;
     public static final String OEM_IDENTIFIER = "QOEMHOOK";
     public static final String ENCODING_USASCII = "US-ASCII";
     public static final int INT_SIZE = 4;
     public static final int HEADER_SIZE = OEM_IDENTIFIER.length() + 2 * INT_SIZE;
+    public static final int SET_TRANSMIT_POWER_SIZE = HEADER_SIZE + 2 * INT_SIZE;
+    public static final int SET_TRANSMIT_POWER_BATCH_HEADER_SIZE = HEADER_SIZE + INT_SIZE;
+    public static final int RESPONSE_SIZE = 1024;
+
+    public static String keyToString(final int key) {
+        switch (key) {
+            case BATTERY_EXT:
+                return "BATTERY_EXT";
+            case VOICECALL_EXT:
+                return "VOICECALL_EXT";
+            case PSENSOR_EXT:
+                return "PSENSOR_EXT";
+            case WIFI_EXT:
+                return "WIFI_EXT";
+            case ACCSENSOR_EXT:
+                return "ACCSENSOR_EXT";
+            default:
+                return "0x" + Integer.toHexString(key);
+        }
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.util;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Milestones of the start of the service after boot, as
+ * {@see SystemClock.elapsedRealtime}, i.e. ms since the device booted:
+ * the boot intents, creation of the service, initialization of the
+ * features, the first sensor becoming active, end of observer
+ * initialization and the first value the modem took. Times are kept
+ * for the first occurrence only. The time from each of the boot intents
+ * to the first modem write is also logged once, as soon as both are
+ * known, so it can be collected from logs over repeated reboots; it is
+ * negative for a boot intent arriving after the first write, e.g.
+ * BOOT_COMPLETED once the user unlocks.
+ */
+public final class StartupTiming {
+    private static final String TAG = StartupTiming.class.getCanonicalName();
+    private static final String LOCKED_BOOT_COMPLETED = "LOCKED_BOOT_COMPLETED";
+    private static final String BOOT_COMPLETED = "BOOT_COMPLETED";
+
+    private static volatile long sLockedBootTime = 0;
+    private static volatile long sBootTime = 0;
+    private static volatile long sServiceCreateTime = 0;
+    private static volatile long sFeaturesInitTime = 0;
+    private static volatile long sFirstSensorTime = 0;
+    private static volatile long sInitDoneTime = 0;
+    private static volatile long sFirstWriteTime = 0;
+    private static volatile int sBootIntentCount = 0;
+    private static volatile int sStartsSkipped = 0;
+
+    /**
+     * @param isLocked True for LOCKED_BOOT_COMPLETED, false for
+     *                 BOOT_COMPLETED.
+     */
+    public static synchronized void onBootIntent(final boolean isLocked) {
+        final long now = SystemClock.elapsedRealtime();
+        sBootIntentCount++;
+        if (isLocked && sLockedBootTime == 0) {
+            sLockedBootTime = now;
+            logFirstWrite(LOCKED_BOOT_COMPLETED, now);
+        } else if (!isLocked && sBootTime == 0) {
+            sBootTime = now;
+            logFirstWrite(BOOT_COMPLETED, now);
+        }
+    }
+
+    /**
+     * A boot intent found the service already running and didn't start
+     * it again.
+     */
+    public static synchronized void onStartSkipped() {
+        sStartsSkipped++;
+    }
+
+    public static void onServiceCreated() {
+        if (sServiceCreateTime == 0) {
+            sServiceCreateTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public static void onFeaturesInitialized() {
+        if (sFeaturesInitTime == 0) {
+            sFeaturesInitTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * A sensor listener was registered, i.e. a sensor became active.
+     */
+    public static void onSensorRegistered() {
+        if (sFirstSensorTime == 0) {
+            sFirstSensorTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    public static void onInitDone() {
+        if (sInitDoneTime == 0) {
+            sInitDoneTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * The modem took a value. Cheap after the first call.
+     */
+    public static void onWrite() {
+        if (sFirstWriteTime != 0) {
+            return;
+        }
+
+        synchronized (StartupTiming.class) {
+            if (sFirstWriteTime != 0) {
+                return;
+            }
+
+            sFirstWriteTime = SystemClock.elapsedRealtime();
+            logFirstWrite(LOCKED_BOOT_COMPLETED, sLockedBootTime);
+            logFirstWrite(BOOT_COMPLETED, sBootTime);
+        }
+    }
+
+    // parsed by tests/startup/startup_timing.sh, keep the format
+    private static void logFirstWrite(final String intent, final long intentTime) {
+        if (intentTime != 0 && sFirstWriteTime != 0) {
+            Log.i(TAG, intent + " to first modem write: "
+                  + (sFirstWriteTime - intentTime) + "ms");
+        }
+    }
+
+    public static synchronized void dump(final PrintWriter pw) {
+        final long start = getFirstBootIntentTime();
+        pw.println("StartupTiming: boot intents=" + sBootIntentCount
+                   + " starts skipped=" + sStartsSkipped);
+        dump(pw, LOCKED_BOOT_COMPLETED, sLockedBootTime, start);
+        dump(pw, BOOT_COMPLETED, sBootTime, start);
+        dump(pw, "service created", sServiceCreateTime, start);
+        dump(pw, "features initialized", sFeaturesInitTime, start);
+        dump(pw, "first sensor active", sFirstSensorTime, start);
+        dump(pw, "observers initialized", sInitDoneTime, start);
+        dump(pw, "first modem write", sFirstWriteTime, start);
+    }
+
+    private static void dump(final PrintWriter pw, final String name,
+                             final long time, final long start) {
+        if (time == 0) {
+            pw.println("  " + name + ": -");
+        } else if (start == 0) {
+            pw.println("  " + name + ": " + time + "ms after boot");
+        } else {
+            pw.println("  " + name + ": " + time + "ms after boot, +"
+                       + (time - start) + "ms");
+        }
+    }
+
+    private static long getFirstBootIntentTime() {
+        if (sLockedBootTime == 0 || sBootTime == 0) {
+            return Math.max(sLockedBootTime, sBootTime);
+        }
+        return Math.min(sLockedBootTime, sBootTime);
+    }
+
+    private StartupTiming() {
+        // intentionally empty
+    }
+}
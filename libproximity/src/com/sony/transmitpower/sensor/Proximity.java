@@ -9,11 +9,9 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 
+import com.sony.transmitpower.util.ListenerRegistry;
 import com.sony.transmitpower.util.Util;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Class that implements acquisition of proximity data
  * from the proximity sensor (Sensor.TYPE_PROXIMITY)
@@ -24,7 +22,8 @@ public final class Proximity
         implements SensorEventListener {
     private static final String TAG = Proximity.class.getCanonicalName();
 
-    private final Set<Listener> mListeners = new HashSet();
+    private final ListenerRegistry<Listener> mListeners =
+            new ListenerRegistry<>(new Listener[0]);
 
     public interface Listener {
         void onProximityStateChanged(boolean isNear);
@@ -50,7 +49,7 @@ public final class Proximity
     }
 
     @Override
-    public void onSensorChanged(SensorEvent event) {
+    protected void onSensorEvent(SensorEvent event) {
         if (Util.DEBUG) {
             Util.logd(TAG, "onSensorChanged");
         }
@@ -58,9 +57,10 @@ public final class Proximity
         if (event.sensor.getType() != Sensor.TYPE_PROXIMITY) return;
 
         final float sensorRange = event.values[0];
-        final boolean isNear = sensorRange < mSensor.getMaximumRange();
-        for (Listener listener: mListeners) {
-            listener.onProximityStateChanged(isNear);
+        final boolean isNear = sensorRange < event.sensor.getMaximumRange();
+        final Listener[] listeners = mListeners.get();
+        for (int i = 0; i < listeners.length; i++) {
+            listeners[i].onProximityStateChanged(isNear);
         }
     }
 
@@ -0,0 +1,129 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower;
+
+import android.os.SystemClock;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import com.sony.transmitpower.transport.LoopbackTransport;
+import com.sony.transmitpower.util.FlightRecorder;
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Per-event cost of the transmit path, each part on its own: validation,
+ * frame encoding, a write through the frame encoder to an instant
+ * loopback modem, the flight recorder and the enqueue of the mediator's
+ * dispatch. encodeBaseline keeps the encoding Transmitter used before
+ * the preallocated frame, to compare encode against.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class TransmitBenchmark {
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private TransmitQueue mQueue;
+    // encoded frames are kept, so encoding isn't optimized away
+    private byte[] mRequest;
+    private byte[] mResponse;
+
+    @Before
+    public void setUp() {
+        Transmitter.setTransport(new LoopbackTransport(1, 0, 0.0f, 0));
+    }
+
+    @After
+    public void tearDown() {
+        if (mQueue != null) {
+            mQueue.quit();
+        }
+    }
+
+    @Test
+    public void validate() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            Transmitter.validate(OemPowerConsts.BATTERY_EXT, OemPowerConsts.BATTERY_EXT);
+        }
+    }
+
+    @Test
+    public void encode() {
+        final OemHookFrameEncoder encoder = new OemHookFrameEncoder();
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mRequest = encoder.encode(OemPowerConsts.BATTERY_EXT, OemPowerConsts.BATTERY_EXT);
+            mResponse = encoder.response();
+        }
+    }
+
+    @Test
+    public void encodeBaseline() throws UnsupportedEncodingException {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            final ByteBuffer buf = ByteBuffer.allocate(OemPowerConsts.HEADER_SIZE
+                                                       + OemPowerConsts.INT_SIZE
+                                                       + OemPowerConsts.INT_SIZE);
+            buf.order(ByteOrder.nativeOrder());
+            buf.put(OemPowerConsts.OEM_IDENTIFIER.getBytes(OemPowerConsts.ENCODING_USASCII));
+            buf.putInt(OemPowerConsts.OEMHOOK_EVT_HOOK_SET_TRANSMIT_POWER);
+            buf.putInt(OemPowerConsts.INT_SIZE);
+            buf.putInt(OemPowerConsts.BATTERY_EXT);
+            buf.putInt(OemPowerConsts.BATTERY_EXT);
+            mRequest = buf.array();
+            mResponse = new byte[1024];
+        }
+    }
+
+    @Test
+    public void transmitPower() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        boolean isOn = false;
+        while (state.keepRunning()) {
+            // alternate, so the register doesn't drop the write
+            isOn = !isOn;
+            Transmitter.transmitPower(OemPowerConsts.BATTERY_EXT,
+                                      isOn ? OemPowerConsts.BATTERY_EXT
+                                           : OemPowerConsts.VALUE_OFF);
+        }
+    }
+
+    @Test
+    public void flightRecorder() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            FlightRecorder.record(FlightRecorder.SOURCE_ENQUEUE,
+                                  OemPowerConsts.BATTERY_EXT, OemPowerConsts.BATTERY_EXT);
+        }
+    }
+
+    @Test
+    public void enqueue() {
+        mQueue = new TransmitQueue();
+        mQueue.start();
+        final BenchmarkState state = mBenchmarkRule.getState();
+        boolean isOn = false;
+        while (state.keepRunning()) {
+            isOn = !isOn;
+            mQueue.enqueue(OemPowerConsts.BATTERY_EXT,
+                           isOn ? OemPowerConsts.BATTERY_EXT : OemPowerConsts.VALUE_OFF,
+                           SystemClock.elapsedRealtimeNanos());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.observer;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.sony.transmitpower.Transmitter;
+import com.sony.transmitpower.transport.LoopbackTransport;
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Cost of a state change until it reaches the transmit queue, through a
+ * local ACTION_TRANSMIT_POWER_CHANGED broadcast to the mediator's adapter
+ * (the way observers used to report) against a direct
+ * {@see ObserverMediator.transmitPower}. The broadcast is only on the
+ * queue once the main looper has delivered it, so each iteration waits
+ * for that; allocations include those of the delivery.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ObserverMediatorBenchmark {
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Context mContext;
+    private LocalBroadcastManager mBroadcastManager;
+    // main thread only writes, the benchmark thread waits for it to change
+    private volatile int mDelivered;
+
+    // registered after the mediator's adapter, so it runs once the value
+    // has been enqueued
+    private final BroadcastReceiver mDeliveredReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mDelivered++;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mBroadcastManager = LocalBroadcastManager.getInstance(mContext);
+        Transmitter.setTransport(new LoopbackTransport(1, 0, 0.0f, 0));
+
+        final ObserverMediator mediator = ObserverMediator.getInstance();
+        mediator.startReplay(mContext, null, new TelephonyStateObserver(new DeviceState()));
+        mediator.registerTransmitPowerReceiver(mContext);
+        mBroadcastManager.registerReceiver(mDeliveredReceiver,
+                new IntentFilter(PowerObserverBase.ACTION_TRANSMIT_POWER_CHANGED));
+    }
+
+    @After
+    public void tearDown() {
+        mBroadcastManager.unregisterReceiver(mDeliveredReceiver);
+        ObserverMediator.getInstance().unregisterTransmitPowerReceiver(mContext);
+    }
+
+    @Test
+    public void transmitPowerBroadcast() {
+        int value = OemPowerConsts.BATTERY_EXT;
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            final Intent intent = new Intent(PowerObserverBase.ACTION_TRANSMIT_POWER_CHANGED);
+            intent.putExtra(PowerObserverBase.TRANSMIT_POWER_KEY, OemPowerConsts.BATTERY_EXT);
+            intent.putExtra(PowerObserverBase.TRANSMIT_POWER_VALUE, value);
+            intent.putExtra(PowerObserverBase.TRANSMIT_POWER_TIME,
+                            SystemClock.elapsedRealtimeNanos());
+
+            final int delivered = mDelivered;
+            mBroadcastManager.sendBroadcast(intent);
+            while (mDelivered == delivered) {
+                // spin; waiting on a lock would add its own allocations
+            }
+
+            value = value == OemPowerConsts.BATTERY_EXT
+                    ? OemPowerConsts.VALUE_OFF : OemPowerConsts.BATTERY_EXT;
+        }
+    }
+
+    @Test
+    public void transmitPowerDirect() {
+        final ObserverMediator mediator = ObserverMediator.getInstance();
+        int value = OemPowerConsts.BATTERY_EXT;
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            // enqueued when it returns
+            mediator.transmitPower(OemPowerConsts.BATTERY_EXT, value,
+                                   SystemClock.elapsedRealtimeNanos());
+
+            value = value == OemPowerConsts.BATTERY_EXT
+                    ? OemPowerConsts.VALUE_OFF : OemPowerConsts.BATTERY_EXT;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.observer;
+
+import android.content.Context;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.sony.transmitpower.Transmitter;
+import com.sony.transmitpower.transport.LoopbackTransport;
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Per-event cost of an observer reporting a value it already reported,
+ * which most events of an observer are, and of one reporting a change,
+ * which goes on through {@see ObserverMediator.transmitPower} to the
+ * flight recorder and the transmit queue.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class PowerObserverBenchmark {
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Transmitter.setTransport(new LoopbackTransport(1, 0, 0.0f, 0));
+        // starts the mediator's queue without observing the device
+        ObserverMediator.getInstance().startReplay(mContext, null,
+                new TelephonyStateObserver(new DeviceState()));
+    }
+
+    @Test
+    public void transmitPowerUnchanged() {
+        final PowerObserverBase observer = new PowerObserverBase(
+                mContext,
+                OemPowerConsts.BATTERY_EXT,
+                OemPowerConsts.BATTERY_EXT,
+                OemPowerConsts.VALUE_OFF,
+                OemPowerConsts.VALUE_OFF);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            observer.transmitPower(OemPowerConsts.VALUE_OFF);
+        }
+    }
+
+    @Test
+    public void transmitPowerChanged() {
+        final PowerObserverBase observer = new PowerObserverBase(
+                mContext,
+                OemPowerConsts.BATTERY_EXT,
+                OemPowerConsts.BATTERY_EXT,
+                OemPowerConsts.VALUE_OFF,
+                OemPowerConsts.VALUE_OFF);
+        int value = OemPowerConsts.BATTERY_EXT;
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            observer.transmitPower(value);
+            value = value == OemPowerConsts.BATTERY_EXT
+                    ? OemPowerConsts.VALUE_OFF : OemPowerConsts.BATTERY_EXT;
+        }
+    }
+}
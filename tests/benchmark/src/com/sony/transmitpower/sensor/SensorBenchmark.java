@@ -0,0 +1,113 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.sensor;
+
+import static org.junit.Assume.assumeNotNull;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorManager;
+import android.os.SystemClock;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.annotation.UiThreadTest;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Per-event cost of the sensors and the sensor policy. Events are made
+ * up and handed to the sensors directly; the accelerometer has to be
+ * listened to for its events to be handled, so its events are handed to
+ * it on the main thread, where the real sensor delivers meanwhile. Its
+ * decision, once per delivered run, runs after the benchmark.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class SensorBenchmark {
+    // as delivered at the fast sampling period
+    private static final long EVENT_INTERVAL_NANOS = 66000000L;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private Context mContext;
+    private SensorManager mSensorManager;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mSensorManager = mContext.getSystemService(SensorManager.class);
+    }
+
+    @Test
+    @UiThreadTest
+    public void accelerometerEvent() throws Exception {
+        final Accelerometer accelerometer = new Accelerometer();
+        accelerometer.init(mContext);
+        final SensorEvent event = createEvent(accelerometer.getSensorType());
+        accelerometer.listen(true);
+        try {
+            final BenchmarkState state = mBenchmarkRule.getState();
+            long time = SystemClock.elapsedRealtimeNanos();
+            while (state.keepRunning()) {
+                time += EVENT_INTERVAL_NANOS;
+                event.timestamp = time;
+                accelerometer.onSensorChanged(event);
+            }
+        } finally {
+            accelerometer.clean();
+        }
+    }
+
+    @Test
+    public void proximityEvent() throws Exception {
+        final Proximity proximity = new Proximity();
+        proximity.init(mContext);
+        final SensorEvent event = createEvent(Sensor.TYPE_PROXIMITY);
+        event.values[0] = event.sensor.getMaximumRange();
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            proximity.onSensorChanged(event);
+        }
+    }
+
+    @Test
+    public void sensorPolicy() {
+        final SensorPolicy policy = SensorPolicy.getInstance(mContext);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int word = 0;
+        while (state.keepRunning()) {
+            word = (word + 1) & (SensorPolicy.CALL_ACTIVE | SensorPolicy.DATA_ACTIVE
+                                 | SensorPolicy.SCREEN_ON | SensorPolicy.EARPIECE);
+            policy.getSensorState(word);
+        }
+    }
+
+    /**
+     * @return An event of the default sensor of type, with zero values.
+     */
+    private SensorEvent createEvent(final int type) throws Exception {
+        final Sensor sensor = mSensorManager.getDefaultSensor(type);
+        assumeNotNull(sensor);
+
+        // the constructor is hidden, sensor events are only made by the framework
+        final Constructor<SensorEvent> constructor =
+                SensorEvent.class.getDeclaredConstructor(int.class);
+        constructor.setAccessible(true);
+        final SensorEvent event = constructor.newInstance(3);
+        event.sensor = sensor;
+        return event;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.observer;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Accelerometer samples to replay, one per line as elapsed realtime in
+ * ns and the values of the x, y and z axis in m/s^2, comma separated,
+ * on the clock of the FlightRecorder trace replayed with them. Samples
+ * are either linear acceleration or raw, with gravity, depending on
+ * which sensor the accelerometer is configured to use.
+ */
+public final class MotionTrace {
+    private static final float GRAVITY = 9.81f;
+    // noise of a device lying still and of one being handled, in m/s^2
+    private static final float STILL_NOISE = 0.03f;
+    private static final float MOVING_NOISE = 1.0f;
+    // swing of a handled device per axis, in m/s^2 and Hz; the mean over a
+    // window is well over config_motion_threshold, and the swing is fast
+    // enough to pass the gravity filter of the raw accelerometer
+    private static final double SWING_X = 12.0;
+    private static final double SWING_X_HZ = 2.5;
+    private static final double SWING_Y = 8.0;
+    private static final double SWING_Y_HZ = 1.7;
+    // how fast a handled device tilts, in rad/s
+    private static final double TILT_RATE = 0.5;
+
+    private long[] mTimes = new long[1024];
+    private float[] mValues = new float[3 * 1024];
+    private int mSize = 0;
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getTime(final int index) {
+        return mTimes[index];
+    }
+
+    /**
+     * Copies the values of sample index into values.
+     */
+    public void getValues(final int index, @NonNull final float[] values) {
+        System.arraycopy(mValues, 3 * index, values, 0, 3);
+    }
+
+    /**
+     * Appends a sample, not before the last one.
+     */
+    public void add(final long time, final float x, final float y, final float z)
+            throws IllegalArgumentException {
+        if (mSize > 0 && time < mTimes[mSize - 1]) {
+            throw new IllegalArgumentException("sample at " + time + " out of order");
+        }
+
+        if (mSize == mTimes.length) {
+            mTimes = Arrays.copyOf(mTimes, 2 * mSize);
+            mValues = Arrays.copyOf(mValues, 6 * mSize);
+        }
+        mTimes[mSize] = time;
+        mValues[3 * mSize] = x;
+        mValues[3 * mSize + 1] = y;
+        mValues[3 * mSize + 2] = z;
+        mSize++;
+    }
+
+    public static MotionTrace read(@NonNull final Reader reader)
+            throws IOException, IllegalArgumentException {
+        final MotionTrace trace = new MotionTrace();
+        final BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            final String[] fields = line.split(",");
+            if (fields.length != 4) {
+                throw new IllegalArgumentException("bad motion sample: " + line);
+            }
+            trace.add(Long.parseLong(fields[0].trim()),
+                      Float.parseFloat(fields[1].trim()),
+                      Float.parseFloat(fields[2].trim()),
+                      Float.parseFloat(fields[3].trim()));
+        }
+        return trace;
+    }
+
+    /**
+     * Generates a trace of a device alternately lying still and being
+     * handled, as a stand-in where no recording is at hand.
+     *
+     * @param startNanos   Time of the first sample.
+     * @param periodNanos  Time between samples.
+     * @param segmentNanos Durations of the still and handled segments,
+     *                     starting with still.
+     * @param withGravity  Raw accelerometer samples, with a gravity
+     *                     vector which tilts while handled, instead of
+     *                     linear acceleration.
+     * @param seed         Seed of the noise, for reproducible traces.
+     */
+    public static MotionTrace synthesize(final long startNanos,
+                                         final long periodNanos,
+                                         @NonNull final long[] segmentNanos,
+                                         final boolean withGravity,
+                                         final long seed) {
+        final MotionTrace trace = new MotionTrace();
+        final Random random = new Random(seed);
+        double tilt = 0.0;
+        long time = startNanos;
+        for (int segment = 0; segment < segmentNanos.length; segment++) {
+            final boolean isMoving = segment % 2 == 1;
+            final long end = time + segmentNanos[segment];
+            for (; time < end; time += periodNanos) {
+                final double seconds = (time - startNanos) / 1e9;
+                float x;
+                float y;
+                float z;
+                if (isMoving) {
+                    x = (float) (SWING_X * Math.sin(2 * Math.PI * SWING_X_HZ * seconds));
+                    y = (float) (SWING_Y * Math.cos(2 * Math.PI * SWING_Y_HZ * seconds));
+                    z = 0.0f;
+                    tilt += TILT_RATE * periodNanos / 1e9;
+                } else {
+                    x = y = z = 0.0f;
+                }
+
+                final float noise = isMoving ? MOVING_NOISE : STILL_NOISE;
+                x += noise * (float) random.nextGaussian();
+                y += noise * (float) random.nextGaussian();
+                z += noise * (float) random.nextGaussian();
+                if (withGravity) {
+                    y += GRAVITY * (float) Math.sin(tilt);
+                    z += GRAVITY * (float) Math.cos(tilt);
+                }
+                trace.add(time, x, y, z);
+            }
+        }
+        return trace;
+    }
+}
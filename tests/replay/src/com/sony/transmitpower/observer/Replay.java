@@ -0,0 +1,529 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.observer;
+
+import static org.robolectric.Shadows.shadowOf;
+
+import androidx.annotation.NonNull;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorManager;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.sony.transmitpower.Transmitter;
+import com.sony.transmitpower.sensor.Accelerometer;
+import com.sony.transmitpower.sensor.Proximity;
+import com.sony.transmitpower.sensor.observer.AccelerometerProximityObserver;
+import com.sony.transmitpower.sensor.observer.ProximityObserver;
+import com.sony.transmitpower.service.InCallObserverService;
+import com.sony.transmitpower.transport.TransmitTransport;
+import com.sony.transmitpower.util.FlightRecorder;
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import org.robolectric.shadows.ShadowSensor;
+import org.robolectric.shadows.ShadowSensorManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a FlightRecorder trace of observer inputs, as printed by
+ * `dumpsys ... --trace`, and optionally a {@see MotionTrace} through the
+ * observers, the sensor policy, the accelerometer and the transmit queue
+ * of TransPowerSensors, in virtual time on the Robolectric main looper.
+ * Modem writes go to a transport recording them, so a trace can be
+ * replayed against changed code or configuration and the writes, their
+ * timing and the CPU time spent per event compared.
+ *
+ * Accelerometer samples are delivered as the sensor hub would: only
+ * while the accelerometer listens, at most one per sampling period it
+ * is registered with, and with a max report latency held back and
+ * delivered in a run once the oldest is that old. Proximity is never
+ * near. CPU time is the host's thread CPU time, so only compare it
+ * between replays on the same machine.
+ */
+public final class Replay {
+    // index of accelerometer samples in the per source statistics
+    public static final int SOURCE_MOTION = 0;
+    private static final int SOURCE_COUNT = FlightRecorder.SOURCE_SERVICE + 1;
+    // a trace sample this early is still taken for the next sampling period
+    private static final long SAMPLING_JITTER_NANOS = 2000000L;
+    // time replayed after the last event for held releases and retries
+    private static final long TAIL_NANOS = 10000000000L;
+    private static final long NANOS_PER_US = 1000L;
+
+    private final Context mContext;
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * A record of a FlightRecorder trace.
+     */
+    public static final class Input {
+        public final long timeNanos;
+        public final int source;
+        public final int key;
+        public final int value;
+
+        public Input(final long timeNanos, final int source, final int key, final int value) {
+            this.timeNanos = timeNanos;
+            this.source = source;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A value the modem took. Times are relative to the start of the replay.
+     */
+    public static final class Write {
+        public final long timeNanos;
+        public final int key;
+        public final int value;
+
+        Write(final long timeNanos, final int key, final int value) {
+            this.timeNanos = timeNanos;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Write)) {
+                return false;
+            }
+
+            final Write other = (Write) o;
+            return timeNanos == other.timeNanos && key == other.key && value == other.value;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(timeNanos) * 31 * 31 + key * 31 + value;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("+%.3fs %s=%d",
+                                 timeNanos / 1e9, OemPowerConsts.keyToString(key), value);
+        }
+    }
+
+    public static final class Result {
+        public final List<Write> writes = new ArrayList<>();
+        // times, relative to the start of the replay, of changes of the
+        // motion state and whether it became stable
+        public final List<Long> motionEdgeTimes = new ArrayList<>();
+        public final List<Boolean> motionEdgeStable = new ArrayList<>();
+        public long durationNanos;
+        public long listenedNanos;
+        public long samples;
+        // runs of samples delivered, i.e. wakeups of the application processor
+        public long deliveries;
+        public long periodChanges;
+        // indexed by FlightRecorder.SOURCE_* of the input, SOURCE_MOTION for
+        // accelerometer deliveries
+        public final long[] events = new long[SOURCE_COUNT];
+        public final long[] cpuNanos = new long[SOURCE_COUNT];
+
+        /**
+         * @return Samples per second of listening.
+         */
+        public double getSampleRate() {
+            return listenedNanos > 0 ? samples * 1e9 / listenedNanos : 0.0;
+        }
+
+        /**
+         * @return CPU time per hour of replayed time spent on accelerometer
+         *         deliveries.
+         */
+        public double getMotionCpuMsPerHour() {
+            return durationNanos > 0
+                    ? cpuNanos[SOURCE_MOTION] / 1e6 * 3600e9 / durationNanos : 0.0;
+        }
+
+        public void dump(@NonNull final PrintWriter pw) {
+            pw.println(String.format("Replay: %.1fs", durationNanos / 1e9));
+            pw.println("  writes: " + writes.size());
+            for (Write write : writes) {
+                pw.println("    " + write);
+            }
+            pw.println("  motion edges: " + motionEdgeTimes.size());
+            for (int i = 0; i < motionEdgeTimes.size(); i++) {
+                pw.println(String.format("    +%.3fs %s", motionEdgeTimes.get(i) / 1e9,
+                                         motionEdgeStable.get(i) ? "stable" : "moving"));
+            }
+            pw.println(String.format("  accelerometer: listened=%.1fs samples=%d (%.1f/s)"
+                                     + " deliveries=%d period changes=%d cpu=%.1fms/h",
+                                     listenedNanos / 1e9, samples, getSampleRate(),
+                                     deliveries, periodChanges, getMotionCpuMsPerHour()));
+            for (int source = 0; source < SOURCE_COUNT; source++) {
+                if (events[source] > 0) {
+                    pw.println(String.format("  cpu %s: events=%d mean=%dus",
+                                             sourceToString(source), events[source],
+                                             cpuNanos[source] / events[source] / NANOS_PER_US));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param context Context the observers and sensors are configured from.
+     */
+    public Replay(@NonNull final Context context) throws IllegalArgumentException {
+        if (context == null) {
+            throw new IllegalArgumentException("null context supplied.");
+        }
+
+        mContext = context;
+    }
+
+    /**
+     * Reads the input records of a FlightRecorder trace, skipping the
+     * records of decisions.
+     */
+    public static List<Input> readInputs(@NonNull final Reader reader)
+            throws IOException, IllegalArgumentException {
+        final List<Input> inputs = new ArrayList<>();
+        final BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            final String[] fields = line.split(",");
+            if (fields.length != 4) {
+                throw new IllegalArgumentException("bad record: " + line);
+            }
+
+            final int source = sourceFromString(fields[1].trim());
+            if (source < 0) {
+                continue;
+            }
+            inputs.add(new Input(Long.parseLong(fields[0].trim()),
+                                 source,
+                                 Integer.parseInt(fields[2].trim()),
+                                 Integer.parseInt(fields[3].trim())));
+        }
+        return inputs;
+    }
+
+    /**
+     * Replays inputs and motion, if not null, from the state of a device
+     * with no call, no data and the screen off.
+     */
+    public Result run(@NonNull final List<Input> inputs, final MotionTrace motion) {
+        final Result result = new Result();
+        final Looper looper = Looper.getMainLooper();
+        final SensorManager sensorManager = mContext.getSystemService(SensorManager.class);
+        final ShadowSensorManager shadowSensorManager = shadowOf(sensorManager);
+        shadowSensorManager.addSensor(ShadowSensor.newInstance(Sensor.TYPE_LINEAR_ACCELERATION));
+        shadowSensorManager.addSensor(ShadowSensor.newInstance(Sensor.TYPE_ACCELEROMETER));
+        shadowSensorManager.addSensor(ShadowSensor.newInstance(Sensor.TYPE_PROXIMITY));
+
+        final DeviceState deviceState = ObserverMediator.getInstance().getDeviceState();
+        deviceState.setCallActive(false);
+        deviceState.setBuiltinSpeaker(false);
+        deviceState.setDataActive(false);
+        deviceState.setScreenOn(false);
+        final ScreenObserver screenObserver = new ScreenObserver(deviceState);
+        final TelecommObserver telecommObserver = new TelecommObserver(deviceState);
+        final TelephonyStateObserver telephonyStateObserver =
+                new TelephonyStateObserver(deviceState);
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        Transmitter.setTransport(new RecordingTransport(start, result));
+        ObserverMediator.getInstance().startReplay(mContext, looper, telephonyStateObserver);
+
+        // wired like SensorFeature of TransPowerSensors
+        final Accelerometer accelerometer = new Accelerometer();
+        final Proximity proximity = new Proximity();
+        accelerometer.init(mContext);
+        proximity.init(mContext);
+        final AccelerometerProximityObserver accObserver =
+                new AccelerometerProximityObserver(mContext,
+                                                   OemPowerConsts.ACCSENSOR_EXT,
+                                                   OemPowerConsts.ACCSENSOR_EXT,
+                                                   OemPowerConsts.VALUE_OFF,
+                                                   OemPowerConsts.INVALID_VALUE);
+        accObserver.init(accelerometer);
+        accelerometer.addListener(accObserver);
+        proximity.addListener(accObserver);
+        final ProximityObserver proximityObserver =
+                new ProximityObserver(mContext,
+                                      OemPowerConsts.PSENSOR_EXT,
+                                      OemPowerConsts.PSENSOR_EXT,
+                                      OemPowerConsts.VALUE_OFF,
+                                      OemPowerConsts.INVALID_VALUE);
+        proximityObserver.init(proximity);
+        proximity.addListener(proximityObserver);
+        final VoiceCallObserver voiceCallObserver =
+                new VoiceCallObserver(mContext,
+                                      OemPowerConsts.VOICECALL_EXT,
+                                      OemPowerConsts.VOICECALL_EXT,
+                                      OemPowerConsts.VALUE_OFF,
+                                      OemPowerConsts.INVALID_VALUE);
+        screenObserver.addListener(accObserver);
+        telephonyStateObserver.addListener(accObserver);
+        telecommObserver.addListener(accObserver);
+        screenObserver.addListener(proximityObserver);
+        telephonyStateObserver.addListener(proximityObserver);
+        telecommObserver.addListener(proximityObserver);
+        telephonyStateObserver.addListener(voiceCallObserver);
+        telecommObserver.addListener(voiceCallObserver);
+
+        accelerometer.addListener(new Accelerometer.Listener() {
+            @Override
+            public void onMotionStateChanged(boolean isStable) {
+                result.motionEdgeTimes.add(SystemClock.elapsedRealtimeNanos() - start);
+                result.motionEdgeStable.add(isStable);
+            }
+        });
+
+        final SensorEvent event = ShadowSensorManager.createSensorEvent(3,
+                accelerometer.getSensorType());
+        event.sensor = sensorManager.getDefaultSensor(accelerometer.getSensorType());
+        final int motionSize = motion != null ? motion.size() : 0;
+        final long first = Math.min(inputs.isEmpty() ? Long.MAX_VALUE : inputs.get(0).timeNanos,
+                                    motionSize > 0 ? motion.getTime(0) : Long.MAX_VALUE);
+        // samples held by the sensor hub, by index into motion
+        final int[] fifo = new int[Math.max(1, motionSize)];
+        int fifoSize = 0;
+        long lastSampleTime = 0;
+        boolean wasListening = false;
+        int lastPeriodUs = accelerometer.getSamplingPeriodUs();
+
+        int input = 0;
+        int sample = 0;
+        while (input < inputs.size() || sample < motionSize) {
+            final boolean isSample = sample < motionSize
+                    && (input == inputs.size()
+                        || motion.getTime(sample) < inputs.get(input).timeNanos);
+            final long time = isSample ? motion.getTime(sample) : inputs.get(input).timeNanos;
+            advance(start + time - first, accelerometer, result);
+
+            if (!isSample) {
+                final long cpu = mThreadBean.getCurrentThreadCpuTime();
+                replay(inputs.get(input), screenObserver, telecommObserver,
+                       telephonyStateObserver);
+                shadowOf(looper).idle();
+                record(result, inputs.get(input).source, cpu);
+                input++;
+                continue;
+            }
+
+            final boolean isListening = accelerometer.isListening();
+            final int periodUs = accelerometer.getSamplingPeriodUs();
+            if (periodUs != lastPeriodUs) {
+                result.periodChanges++;
+                lastPeriodUs = periodUs;
+            }
+            if (!isListening) {
+                // unregistering drops what the hub holds
+                fifoSize = 0;
+            } else if (!wasListening
+                    || time - lastSampleTime >= periodNanos(periodUs) - SAMPLING_JITTER_NANOS) {
+                lastSampleTime = time;
+                fifo[fifoSize++] = sample;
+            }
+            wasListening = isListening;
+            sample++;
+
+            if (fifoSize > 0 && time - motion.getTime(fifo[0])
+                    >= accelerometer.getMaxReportLatencyUs() * NANOS_PER_US) {
+                deliver(motion, fifo, fifoSize, start - first, event, accelerometer, result);
+                fifoSize = 0;
+            }
+        }
+        if (fifoSize > 0) {
+            deliver(motion, fifo, fifoSize, start - first, event, accelerometer, result);
+        }
+        advance(SystemClock.elapsedRealtimeNanos() + TAIL_NANOS, accelerometer, result);
+        result.durationNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        accelerometer.clean();
+        proximity.clean();
+        accObserver.clean();
+        proximityObserver.clean();
+        voiceCallObserver.clean();
+        return result;
+    }
+
+    private void replay(@NonNull final Input input,
+                        @NonNull final ScreenObserver screenObserver,
+                        @NonNull final TelecommObserver telecommObserver,
+                        @NonNull final TelephonyStateObserver telephonyStateObserver) {
+        switch (input.source) {
+            case FlightRecorder.SOURCE_CALL:
+                telecommObserver.onReceive(mContext,
+                        new Intent(InCallObserverService.ACTION_INCALL_STATE_CHANGED)
+                            .putExtra(InCallObserverService.EXTRA_IS_CALL_ACTIVE,
+                                      input.value != 0));
+                break;
+            case FlightRecorder.SOURCE_EARPIECE:
+                telecommObserver.onReceive(mContext,
+                        new Intent(InCallObserverService.ACTION_INCALL_AUDIO_STATE_CHANGED)
+                            .putExtra(InCallObserverService.EXTRA_IS_SPEAKER,
+                                      input.value != 0));
+                break;
+            case FlightRecorder.SOURCE_DATA:
+                telephonyStateObserver.dispatchDataState(input.value != 0);
+                break;
+            case FlightRecorder.SOURCE_SCREEN:
+                screenObserver.dispatchScreenState(input.value != 0);
+                break;
+            case FlightRecorder.SOURCE_SERVICE:
+                telephonyStateObserver.dispatchServiceState(input.key, input.value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void deliver(@NonNull final MotionTrace motion,
+                         @NonNull final int[] fifo,
+                         final int fifoSize,
+                         final long offsetNanos,
+                         @NonNull final SensorEvent event,
+                         @NonNull final Accelerometer accelerometer,
+                         @NonNull final Result result) {
+        final long cpu = mThreadBean.getCurrentThreadCpuTime();
+        for (int i = 0; i < fifoSize; i++) {
+            event.timestamp = motion.getTime(fifo[i]) + offsetNanos;
+            motion.getValues(fifo[i], event.values);
+            accelerometer.onSensorChanged(event);
+        }
+        shadowOf(Looper.getMainLooper()).idle();
+        record(result, SOURCE_MOTION, cpu);
+        result.samples += fifoSize;
+        result.deliveries++;
+    }
+
+    private void record(@NonNull final Result result, final int source, final long cpu) {
+        result.events[source]++;
+        result.cpuNanos[source] += mThreadBean.getCurrentThreadCpuTime() - cpu;
+    }
+
+    /**
+     * Runs the main looper up to virtual time, accounting the time the
+     * accelerometer listened.
+     */
+    private static void advance(final long time,
+                                @NonNull final Accelerometer accelerometer,
+                                @NonNull final Result result) {
+        final long delta = time - SystemClock.elapsedRealtimeNanos();
+        if (delta <= 0) {
+            return;
+        }
+
+        if (accelerometer.isListening()) {
+            result.listenedNanos += delta;
+        }
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofNanos(delta));
+    }
+
+    private static long periodNanos(final int samplingPeriodUs) {
+        switch (samplingPeriodUs) {
+            case SensorManager.SENSOR_DELAY_FASTEST:
+                return 0;
+            case SensorManager.SENSOR_DELAY_GAME:
+                return 20000 * NANOS_PER_US;
+            case SensorManager.SENSOR_DELAY_UI:
+                return 66667 * NANOS_PER_US;
+            case SensorManager.SENSOR_DELAY_NORMAL:
+                return 200000 * NANOS_PER_US;
+            default:
+                return samplingPeriodUs * NANOS_PER_US;
+        }
+    }
+
+    private static int sourceFromString(@NonNull final String source) {
+        switch (source) {
+            case "CALL":
+                return FlightRecorder.SOURCE_CALL;
+            case "EARPIECE":
+                return FlightRecorder.SOURCE_EARPIECE;
+            case "DATA":
+                return FlightRecorder.SOURCE_DATA;
+            case "SCREEN":
+                return FlightRecorder.SOURCE_SCREEN;
+            case "SERVICE":
+                return FlightRecorder.SOURCE_SERVICE;
+            default:
+                // decisions, which the replay makes anew
+                return -1;
+        }
+    }
+
+    private static String sourceToString(final int source) {
+        switch (source) {
+            case SOURCE_MOTION:
+                return "MOTION";
+            case FlightRecorder.SOURCE_CALL:
+                return "CALL";
+            case FlightRecorder.SOURCE_EARPIECE:
+                return "EARPIECE";
+            case FlightRecorder.SOURCE_DATA:
+                return "DATA";
+            case FlightRecorder.SOURCE_SCREEN:
+                return "SCREEN";
+            case FlightRecorder.SOURCE_SERVICE:
+                return "SERVICE";
+            default:
+                return "UNKNOWN(" + source + ")";
+        }
+    }
+
+    /**
+     * Stands in for the modem, taking every value and recording it at the
+     * virtual time it was written.
+     */
+    private static final class RecordingTransport implements TransmitTransport {
+        private static final int PAIR_SIZE = 2 * OemPowerConsts.INT_SIZE;
+
+        private final long mStart;
+        private final Result mResult;
+
+        RecordingTransport(final long start, @NonNull final Result result) {
+            mStart = start;
+            mResult = result;
+        }
+
+        @Override
+        public int send(final byte[] request, final byte[] response) {
+            final long time = SystemClock.elapsedRealtimeNanos() - mStart;
+            final ByteBuffer frame = ByteBuffer.wrap(request).order(ByteOrder.nativeOrder());
+            if (request.length == OemPowerConsts.SET_TRANSMIT_POWER_SIZE) {
+                mResult.writes.add(new Write(time,
+                        frame.getInt(OemPowerConsts.HEADER_SIZE),
+                        frame.getInt(OemPowerConsts.HEADER_SIZE + OemPowerConsts.INT_SIZE)));
+                return 0;
+            }
+
+            final int count = frame.getInt(OemPowerConsts.HEADER_SIZE);
+            for (int i = 0; i < count; i++) {
+                final int offset = OemPowerConsts.SET_TRANSMIT_POWER_BATCH_HEADER_SIZE
+                        + i * PAIR_SIZE;
+                mResult.writes.add(new Write(time,
+                        frame.getInt(offset),
+                        frame.getInt(offset + OemPowerConsts.INT_SIZE)));
+            }
+            return 0;
+        }
+    }
+}
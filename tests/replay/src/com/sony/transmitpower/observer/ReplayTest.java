@@ -0,0 +1,303 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.observer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.sony.transmitpower.sensor.R;
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.FileReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays the bundled trace with synthetic motion, and recorded traces
+ * given by -Dtranspower.replay.inputs=<FlightRecorder trace> and
+ * optionally -Dtranspower.replay.motion=<motion trace>. Reports are
+ * printed to stdout.
+ *
+ * The linear acceleration sensor and the raw accelerometer are compared
+ * on the recorded trace, or else the bundled one, with the same motion
+ * synthesized without and with gravity: both have to see the same motion
+ * edges, and the CPU time each spends per hour is reported. Likewise
+ * sampling slower while stable is compared with sampling fast throughout
+ * by the average sample rate, the latency of detecting each handled
+ * segment and the CPU time per hour.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ReplayTest {
+    static final String TRACE = "/call_and_browse.csv";
+    static final long NANOS_PER_S = 1000000000L;
+    // 100 Hz, like a sensor logger app records
+    static final long MOTION_PERIOD_NANOS = 10000000L;
+    // still and handled in turn from the first input of TRACE: handled
+    // while browsing, during the call, after it and with the screen off
+    static final long[] MOTION_SEGMENTS_NANOS = {
+        20 * NANOS_PER_S, 30 * NANOS_PER_S,
+        100 * NANOS_PER_S, 60 * NANOS_PER_S,
+        120 * NANOS_PER_S, 60 * NANOS_PER_S,
+        110 * NANOS_PER_S, 20 * NANOS_PER_S,
+        40 * NANOS_PER_S,
+    };
+    // start of the motion during the call, relative to the first input
+    private static final long CALL_MOTION_NANOS = 150 * NANOS_PER_S;
+    private static final long MAX_DETECTION_LATENCY_NANOS = NANOS_PER_S;
+
+    @Test
+    public void replayIsDeterministic() throws Exception {
+        final List<Replay.Input> inputs = readBundledInputs();
+        final Replay.Result first = replay(ApplicationProvider.getApplicationContext(), inputs,
+                                           synthesizeMotion(inputs, false));
+        final Replay.Result second = replay(ApplicationProvider.getApplicationContext(), inputs,
+                                            synthesizeMotion(inputs, false));
+
+        assertEquals(first.writes, second.writes);
+        assertEquals(first.samples, second.samples);
+    }
+
+    @Test
+    public void motionDuringCallBacksOff() throws Exception {
+        final List<Replay.Input> inputs = readBundledInputs();
+        final Replay.Result result = replay(ApplicationProvider.getApplicationContext(), inputs,
+                                            synthesizeMotion(inputs, false));
+
+        boolean isBackedOff = false;
+        for (Replay.Write write : result.writes) {
+            if (write.key == OemPowerConsts.ACCSENSOR_EXT
+                    && write.value == OemPowerConsts.ACCSENSOR_EXT
+                    && write.timeNanos >= CALL_MOTION_NANOS
+                    && write.timeNanos < CALL_MOTION_NANOS + MAX_DETECTION_LATENCY_NANOS) {
+                isBackedOff = true;
+            }
+        }
+        assertTrue("no backoff within " + MAX_DETECTION_LATENCY_NANOS + "ns of motion",
+                   isBackedOff);
+    }
+
+    @Test
+    public void rawAndLinearAgree() throws Exception {
+        final List<Replay.Input> inputs = readRecordedOrBundledInputs();
+        final ConfigContext rawContext =
+                new ConfigContext(ApplicationProvider.getApplicationContext());
+        rawContext.setBoolean(R.bool.config_motion_raw_accelerometer, true);
+        final Replay.Result linear = replay(ApplicationProvider.getApplicationContext(),
+                                            inputs, synthesizeMotion(inputs, false));
+        final Replay.Result raw = replay(rawContext, inputs, synthesizeMotion(inputs, true));
+        System.out.println(String.format("motion cpu: linear=%.1fms/h raw=%.1fms/h",
+                                         linear.getMotionCpuMsPerHour(),
+                                         raw.getMotionCpuMsPerHour()));
+
+        assertEdgesFound(linear, raw, "raw");
+        assertEdgesFound(raw, linear, "linear");
+    }
+
+    @Test
+    public void slowSamplingKeepsDetecting() throws Exception {
+        final List<Replay.Input> inputs = readRecordedOrBundledInputs();
+        final ConfigContext fastContext =
+                new ConfigContext(ApplicationProvider.getApplicationContext());
+        // never stable for long enough to sample slow
+        fastContext.setInteger(R.integer.config_motion_slow_after_ms, Integer.MAX_VALUE);
+        final Replay.Result fast = replay(fastContext, inputs, synthesizeMotion(inputs, false));
+        final Replay.Result slow = replay(ApplicationProvider.getApplicationContext(),
+                                          inputs, synthesizeMotion(inputs, false));
+        final long[] fastLatencies = getDetectionLatencies(fast);
+        final long[] slowLatencies = getDetectionLatencies(slow);
+        System.out.println(String.format("fast: %.1f/s latency=%.3fs cpu=%.1fms/h",
+                                         fast.getSampleRate(), mean(fastLatencies) / 1e9,
+                                         fast.getMotionCpuMsPerHour()));
+        System.out.println(String.format("slow: %.1f/s latency=%.3fs cpu=%.1fms/h",
+                                         slow.getSampleRate(), mean(slowLatencies) / 1e9,
+                                         slow.getMotionCpuMsPerHour()));
+
+        assertTrue("slow sampling took " + slow.samples + " samples, fast " + fast.samples,
+                   slow.samples < fast.samples);
+        for (int i = 0; i < fastLatencies.length; i++) {
+            if (fastLatencies[i] < 0) {
+                continue;
+            }
+            assertTrue("handled segment " + i + " detected " + slowLatencies[i] + "ns late",
+                       slowLatencies[i] >= 0
+                       && slowLatencies[i] <= fastLatencies[i] + MAX_DETECTION_LATENCY_NANOS);
+        }
+    }
+
+    @Test
+    public void replayRecordedTrace() throws Exception {
+        final List<Replay.Input> inputs = readRecordedInputs();
+        assumeTrue(inputs != null);
+
+        MotionTrace motion = null;
+        final String motionPath = System.getProperty("transpower.replay.motion");
+        if (motionPath != null) {
+            try (Reader reader = new FileReader(motionPath)) {
+                motion = MotionTrace.read(reader);
+            }
+        }
+        replay(ApplicationProvider.getApplicationContext(), inputs, motion);
+    }
+
+    /**
+     * @return Inputs of the trace given by transpower.replay.inputs, or
+     *         null if none is.
+     */
+    static List<Replay.Input> readRecordedInputs() throws Exception {
+        final String inputsPath = System.getProperty("transpower.replay.inputs");
+        if (inputsPath == null) {
+            return null;
+        }
+
+        try (Reader reader = new FileReader(inputsPath)) {
+            return Replay.readInputs(reader);
+        }
+    }
+
+    static List<Replay.Input> readBundledInputs() throws Exception {
+        try (Reader reader = new InputStreamReader(
+                ReplayTest.class.getResourceAsStream(TRACE), StandardCharsets.UTF_8)) {
+            return Replay.readInputs(reader);
+        }
+    }
+
+    static MotionTrace synthesizeMotion(final List<Replay.Input> inputs,
+                                        final boolean withGravity) {
+        return MotionTrace.synthesize(inputs.get(0).timeNanos, MOTION_PERIOD_NANOS,
+                                      MOTION_SEGMENTS_NANOS, withGravity, 0);
+    }
+
+    static List<Replay.Input> readRecordedOrBundledInputs() throws Exception {
+        final List<Replay.Input> inputs = readRecordedInputs();
+        return inputs != null ? inputs : readBundledInputs();
+    }
+
+    static Replay.Result replay(final Context context,
+                                final List<Replay.Input> inputs,
+                                final MotionTrace motion) {
+        final Replay.Result result = new Replay(context).run(inputs, motion);
+        result.dump(new PrintWriter(System.out, true));
+        return result;
+    }
+
+    /**
+     * Asserts that every motion edge of expected is in actual, in the
+     * same direction and at most MAX_DETECTION_LATENCY_NANOS apart.
+     */
+    private static void assertEdgesFound(final Replay.Result expected,
+                                         final Replay.Result actual,
+                                         final String name) {
+        for (int i = 0; i < expected.motionEdgeTimes.size(); i++) {
+            final long time = expected.motionEdgeTimes.get(i);
+            final boolean isStable = expected.motionEdgeStable.get(i);
+            boolean isFound = false;
+            for (int j = 0; j < actual.motionEdgeTimes.size() && !isFound; j++) {
+                isFound = actual.motionEdgeStable.get(j) == isStable
+                        && Math.abs(actual.motionEdgeTimes.get(j) - time)
+                           <= MAX_DETECTION_LATENCY_NANOS;
+            }
+            assertTrue(String.format("%s missed %s edge at +%.3fs",
+                                     name, isStable ? "stable" : "moving", time / 1e9),
+                       isFound);
+        }
+    }
+
+    /**
+     * @return Per handled segment of the synthesized motion, the time from
+     *         its start to the first motion edge in it, or -1 if none.
+     */
+    private static long[] getDetectionLatencies(final Replay.Result result) {
+        final long[] latencies = new long[MOTION_SEGMENTS_NANOS.length / 2];
+        long start = 0;
+        for (int segment = 0; segment < MOTION_SEGMENTS_NANOS.length; segment++) {
+            final long end = start + MOTION_SEGMENTS_NANOS[segment];
+            if (segment % 2 == 1) {
+                latencies[segment / 2] = -1;
+                for (int i = 0; i < result.motionEdgeTimes.size(); i++) {
+                    final long time = result.motionEdgeTimes.get(i);
+                    if (!result.motionEdgeStable.get(i) && time >= start && time < end) {
+                        latencies[segment / 2] = time - start;
+                        break;
+                    }
+                }
+            }
+            start = end;
+        }
+        return latencies;
+    }
+
+    /**
+     * @return Mean of the values which aren't negative, 0 if none.
+     */
+    private static long mean(final long[] values) {
+        long sum = 0;
+        int count = 0;
+        for (long value : values) {
+            if (value >= 0) {
+                sum += value;
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : 0;
+    }
+
+    /**
+     * Overrides configuration resources of the base context.
+     */
+    private static final class ConfigContext extends ContextWrapper {
+        private final Map<Integer, Boolean> mBooleans = new HashMap<>();
+        private final Map<Integer, Integer> mIntegers = new HashMap<>();
+        private final Resources mResources;
+
+        ConfigContext(final Context base) {
+            super(base);
+            final Resources resources = base.getResources();
+            mResources = new Resources(resources.getAssets(),
+                                       resources.getDisplayMetrics(),
+                                       resources.getConfiguration()) {
+                @Override
+                public boolean getBoolean(int id) {
+                    final Boolean value = mBooleans.get(id);
+                    return value != null ? value : super.getBoolean(id);
+                }
+
+                @Override
+                public int getInteger(int id) {
+                    final Integer value = mIntegers.get(id);
+                    return value != null ? value : super.getInteger(id);
+                }
+            };
+        }
+
+        void setBoolean(final int id, final boolean value) {
+            mBooleans.put(id, value);
+        }
+
+        void setInteger(final int id, final int value) {
+            mIntegers.put(id, value);
+        }
+
+        @Override
+        public Resources getResources() {
+            return mResources;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower;
+
+import static org.junit.Assert.assertTrue;
+
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.MediumTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.sony.transmitpower.transport.LoopbackTransport;
+import com.sony.transmitpower.util.OemPowerConsts;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+/**
+ * Enqueues from the main thread while the worker writes to a modem which
+ * is instant and one which takes SLOW_LATENCY_NANOS per request. The time
+ * the main thread spends in enqueue must not follow the modem.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class TransmitQueueLatencyTest {
+    private static final int EVENTS = 200;
+    private static final long EVENT_INTERVAL_MS = 1;
+    private static final long SLOW_LATENCY_NANOS = 50000000L;
+    // allowed growth of the main thread p99 with the slow modem
+    private static final long P99_SLACK_NANOS = 1000000L;
+
+    @After
+    public void tearDown() {
+        Transmitter.setTransport(new LoopbackTransport(1, 0, 0.0f, 0));
+    }
+
+    @Test
+    public void enqueueDoesNotBlockOnSlowModem() throws Exception {
+        final long[] fast = measureEnqueueNanos(0);
+        final long[] slow = measureEnqueueNanos(SLOW_LATENCY_NANOS);
+
+        assertTrue("p99 fast " + percentile(fast, 99) + "ns, slow " + percentile(slow, 99) + "ns",
+                   percentile(slow, 99) <= percentile(fast, 99) + P99_SLACK_NANOS);
+        assertTrue("max slow " + slow[slow.length - 1] + "ns",
+                   slow[slow.length - 1] < SLOW_LATENCY_NANOS);
+    }
+
+    /**
+     * @return Sorted time each enqueue took on the main thread.
+     */
+    private static long[] measureEnqueueNanos(final long modemLatencyNanos) throws Exception {
+        final LoopbackTransport transport =
+                new LoopbackTransport(EVENTS, modemLatencyNanos, 0.0f, 0);
+        final TransmitQueue queue = new TransmitQueue();
+        final long[] durations = new long[EVENTS];
+        Transmitter.setTransport(transport);
+        queue.start();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < EVENTS; i++) {
+                    final long start = System.nanoTime();
+                    queue.enqueue(OemPowerConsts.BATTERY_EXT,
+                                  i % 2 == 0 ? OemPowerConsts.BATTERY_EXT
+                                             : OemPowerConsts.VALUE_OFF,
+                                  SystemClock.elapsedRealtimeNanos());
+                    durations[i] = System.nanoTime() - start;
+                    SystemClock.sleep(EVENT_INTERVAL_MS);
+                }
+            }
+        });
+
+        queue.quit();
+        assertTrue("no write reached the modem", transport.getSentCount() > 0);
+        Arrays.sort(durations);
+        return durations;
+    }
+
+    private static long percentile(final long[] sorted, final int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeNotNull;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorManager;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * Hands made up events to a listened to accelerometer on the main thread,
+ * where it delivers and decides, one event per run, and counts the
+ * objects the main thread allocates meanwhile. Events are spaced by the
+ * fast period and span less than config_motion_slow_after_ms, so the
+ * sensor isn't re-registered, which is the framework allocating.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class AccelerometerAllocationTest {
+    private static final long EVENT_INTERVAL_NANOS = 66000000L;
+    // more than config_motion_window_ms, so decisions are made
+    private static final int WARMUP_EVENTS = 10;
+    private static final int EVENTS = 100;
+
+    @Test
+    public void eventsDoNotAllocate() throws Exception {
+        final Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final Context context = instrumentation.getTargetContext();
+        final Accelerometer accelerometer = new Accelerometer();
+        accelerometer.init(context);
+        final SensorEvent event = createEvent(context, accelerometer.getSensorType());
+        final int[] allocations = new int[1];
+        final Runnable deliver = new Runnable() {
+            @Override
+            public void run() {
+                event.timestamp += EVENT_INTERVAL_NANOS;
+                accelerometer.onSensorChanged(event);
+            }
+        };
+
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                accelerometer.listen(true);
+            }
+        });
+        try {
+            event.timestamp = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < WARMUP_EVENTS; i++) {
+                instrumentation.runOnMainSync(deliver);
+            }
+
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    Debug.startAllocCounting();
+                    Debug.resetThreadAllocCount();
+                }
+            });
+            // each decision runs after its event, before the next one
+            for (int i = 0; i < EVENTS; i++) {
+                instrumentation.runOnMainSync(deliver);
+            }
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    allocations[0] = Debug.getThreadAllocCount();
+                    Debug.stopAllocCounting();
+                }
+            });
+
+            assertEquals("allocations in " + EVENTS + " events", 0, allocations[0]);
+        } finally {
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    accelerometer.clean();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return An event of the default sensor of type, with zero values.
+     */
+    private static SensorEvent createEvent(final Context context, final int type)
+            throws Exception {
+        final Sensor sensor = context.getSystemService(SensorManager.class)
+                .getDefaultSensor(type);
+        assumeNotNull(sensor);
+
+        // the constructor is hidden, sensor events are only made by the framework
+        final Constructor<SensorEvent> constructor =
+                SensorEvent.class.getDeclaredConstructor(int.class);
+        constructor.setAccessible(true);
+        final SensorEvent event = constructor.newInstance(3);
+        event.sensor = sensor;
+        return event;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.sensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Checks the policy compiled from the shipped sensor_policy resource
+ * against the built-in {@see SensorState.getSensorState} for every state.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class SensorPolicyTest {
+    private static final int INPUT_COUNT = 4;
+
+    @Test
+    public void compiledPolicyMatchesBuiltIn() {
+        final SensorPolicy policy = SensorPolicy.getInstance(
+                InstrumentationRegistry.getInstrumentation().getTargetContext());
+
+        for (int word = 0; word < 1 << INPUT_COUNT; word++) {
+            final boolean isCallActive = (word & SensorPolicy.CALL_ACTIVE) != 0;
+            final boolean isDataActive = (word & SensorPolicy.DATA_ACTIVE) != 0;
+            final boolean isScreenOn = (word & SensorPolicy.SCREEN_ON) != 0;
+            final boolean isEarpiece = (word & SensorPolicy.EARPIECE) != 0;
+
+            assertEquals(word, SensorPolicy.pack(isCallActive, isDataActive,
+                                                 isScreenOn, isEarpiece));
+            // interned, so the very same instance
+            assertSame("state word 0x" + Integer.toHexString(word),
+                       SensorState.getSensorState(isCallActive, isDataActive, isScreenOn),
+                       policy.getSensorState(word));
+        }
+    }
+}
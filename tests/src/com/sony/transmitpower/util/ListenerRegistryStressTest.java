@@ -0,0 +1,131 @@
+/*
+ * Licensed under the LICENSE.
+ * Copyright 2018, Sony Mobile Communications Inc.
+ */
+package com.sony.transmitpower.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Dispatches from several threads as fast as they can while other threads
+ * add and remove listeners. Dispatch must never see a torn snapshot, and
+ * the registry must end up with exactly the listeners left added.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class ListenerRegistryStressTest {
+    private static final int DISPATCHERS = 4;
+    private static final int REGISTRARS = 4;
+    private static final int LISTENERS_PER_REGISTRAR = 500;
+
+    private static final class Listener {
+        final AtomicInteger mCalls = new AtomicInteger();
+
+        void onEvent() {
+            mCalls.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void registerWhileDispatching() throws Exception {
+        final ListenerRegistry<Listener> registry = new ListenerRegistry<>(new Listener[0]);
+        final Listener[][] listeners = new Listener[REGISTRARS][LISTENERS_PER_REGISTRAR];
+        final AtomicBoolean isRegistering = new AtomicBoolean(true);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final AtomicLong dispatches = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] dispatchers = new Thread[DISPATCHERS];
+        final Thread[] registrars = new Thread[REGISTRARS];
+
+        for (int i = 0; i < DISPATCHERS; i++) {
+            dispatchers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (isRegistering.get()) {
+                            final Listener[] snapshot = registry.get();
+                            for (int j = 0; j < snapshot.length; j++) {
+                                snapshot[j].onEvent();
+                            }
+                            dispatches.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+
+        for (int i = 0; i < REGISTRARS; i++) {
+            final Listener[] own = listeners[i];
+            registrars[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < own.length; j++) {
+                            own[j] = new Listener();
+                            assertTrue(registry.add(own[j]));
+                            // removes every other listener again
+                            if (j % 2 == 1) {
+                                assertTrue(registry.remove(own[j - 1]));
+                            }
+                        }
+                    } catch (Throwable t) {
+                        error.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+
+        for (Thread t : dispatchers) {
+            t.start();
+        }
+        for (Thread t : registrars) {
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : registrars) {
+            t.join();
+        }
+        isRegistering.set(false);
+        for (Thread t : dispatchers) {
+            t.join();
+        }
+
+        assertNull("failed with " + error.get(), error.get());
+        assertTrue("no dispatch happened", dispatches.get() > 0);
+
+        final Listener[] left = registry.get();
+        assertEquals(REGISTRARS * LISTENERS_PER_REGISTRAR / 2, left.length);
+        // every listener left is in the snapshot exactly once
+        final Set<Listener> unique =
+                Collections.newSetFromMap(new IdentityHashMap<Listener, Boolean>());
+        Collections.addAll(unique, left);
+        assertEquals(left.length, unique.size());
+        for (int i = 0; i < REGISTRARS; i++) {
+            for (int j = 1; j < LISTENERS_PER_REGISTRAR; j += 2) {
+                assertTrue(registry.remove(listeners[i][j]));
+            }
+        }
+        assertEquals(0, registry.get().length);
+    }
+}
@@ -0,0 +1,68 @@
+#!/bin/bash
+#
+# Licensed under the LICENSE.
+# Copyright 2018, Sony Mobile Communications Inc.
+#
+# Reboots the device N times and collects the time from each boot intent
+# to the first modem write, as logged once per boot by StartupTiming.
+# BOOT_COMPLETED is only sent once the user unlocks, so keep the device
+# without a lock screen or unlock it within the timeout.
+#
+# usage: startup_timing.sh [-s serial] [reboots] [timeout_s]
+
+set -u
+
+ADB=(adb)
+if [ "${1:-}" = "-s" ]; then
+    ADB=(adb -s "$2")
+    shift 2
+fi
+REBOOTS=${1:-10}
+TIMEOUT_S=${2:-120}
+TAG=com.sony.transmitpower.util.StartupTiming
+INTENTS=(LOCKED_BOOT_COMPLETED BOOT_COMPLETED)
+
+# prints the ms of intent $1 in the log lines on stdin, nothing if absent
+parse() {
+    sed -n "s/.* $1 to first modem write: \(-\{0,1\}[0-9]*\)ms.*/\1/p" | tail -n 1
+}
+
+# prints count, min, median, mean and max of the numbers on stdin
+stats() {
+    sort -n | awk '{ v[NR] = $1; sum += $1 }
+        END {
+            if (NR == 0) { print "n=0"; exit }
+            m = NR % 2 ? v[(NR + 1) / 2] : (v[NR / 2] + v[NR / 2 + 1]) / 2
+            printf "n=%d min=%d median=%d mean=%.1f max=%d\n", NR, v[1], m, sum / NR, v[NR]
+        }'
+}
+
+declare -A RESULTS
+for i in $(seq 1 "$REBOOTS"); do
+    "${ADB[@]}" reboot
+    "${ADB[@]}" wait-for-device
+
+    log=""
+    for _ in $(seq 1 "$TIMEOUT_S"); do
+        sleep 1
+        log=$("${ADB[@]}" logcat -d -s "$TAG" 2>/dev/null)
+        if [ -n "$(parse BOOT_COMPLETED <<< "$log")" ]; then
+            break
+        fi
+    done
+
+    line="boot $i:"
+    for intent in "${INTENTS[@]}"; do
+        ms=$(parse "$intent" <<< "$log")
+        line="$line $intent=${ms:--}"
+        if [ -n "$ms" ]; then
+            RESULTS[$intent]="${RESULTS[$intent]:-}$ms"$'\n'
+        fi
+    done
+    echo "$line"
+done
+
+echo "boot intent to first modem write (ms) over $REBOOTS reboots:"
+for intent in "${INTENTS[@]}"; do
+    echo "  $intent: $(printf '%s' "${RESULTS[$intent]:-}" | grep -v '^$' | stats)"
+done